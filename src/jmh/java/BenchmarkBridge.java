@@ -0,0 +1,153 @@
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Gives the JMH suites in the benchmarks package access to the application classes. JMH refuses benchmarks in the
+ * default package and code in a named package can't refer to the default package, so every entry point is handed over
+ * as a java.util.function object, looked up once by name through reflection
+ */
+public final class BenchmarkBridge
+{
+    private BenchmarkBridge() {}
+
+    /**
+     * @return reads a property sheet and an owner sheet with readExcel (full XSSFWorkbook)
+     */
+    public static Consumer<File> readExcel()
+    {
+        return inFile ->
+        {
+            final var sorter = new FileSorter();
+            sorter.readExcel(inFile, 0, "p");
+            sorter.readExcel(inFile, 1, "o");
+        };
+    }
+
+    /**
+     * @return reads a property sheet and an owner sheet with readExcelStreaming
+     */
+    public static Consumer<File> readExcelStreaming()
+    {
+        return inFile ->
+        {
+            final var sorter = new FileSorter();
+            sorter.readExcelStreaming(inFile, 0, "p");
+            sorter.readExcelStreaming(inFile, 1, "o");
+        };
+    }
+
+    /**
+     * @return reads a property sheet and an owner sheet in parallel with readWorkbook
+     */
+    public static Consumer<File> readWorkbook() { return inFile -> new FileSorter().readWorkbook(inFile, "p", "o"); }
+
+    /**
+     * Loads the input file once and hands out fresh, not yet joined copies of its owners and properties
+     * @param inFile generated registry export
+     * @param identityResolution true to join through the IdentityResolver
+     * @return a supplier of ready-to-run joins; calling the returned Runnable runs setProperty once
+     */
+    public static Supplier<Runnable> setProperty(final File inFile, final boolean identityResolution) throws ReflectiveOperationException
+    {
+        final var propertySheet = new FileSorter(); //each sheet is read on its own so that no join runs
+        final var ownerSheet = new FileSorter();
+        propertySheet.readExcelStreaming(inFile, 0, "p");
+        ownerSheet.readExcelStreaming(inFile, 1, "o");
+
+        final List<Property> properties = List.copyOf(field(propertySheet, "allProperties"));
+        final List<Owner> owners = List.copyOf(field(ownerSheet, "allOwners"));
+        final Method setProperty = FileSorter.class.getDeclaredMethod("setProperty");
+        setProperty.setAccessible(true);
+
+        return () ->
+        {
+            final var sorter = new FileSorter();
+            sorter.setIdentityResolution(identityResolution);
+
+            try
+            {
+                final List<Owner> allOwners = field(sorter, "allOwners");
+                BenchmarkBridge.<Property>field(sorter, "allProperties").addAll(properties);
+                owners.forEach(owner -> allOwners.add(copy(owner))); //owners are changed by the join
+            }
+            catch (ReflectiveOperationException e) { throw new IllegalStateException(e); }
+
+            return () ->
+            {
+                try { setProperty.invoke(sorter); }
+                catch (ReflectiveOperationException e) { throw new IllegalStateException(e); }
+            };
+        };
+    }
+
+    /**
+     * Loads and joins the input file once
+     * @param inFile generated registry export
+     * @return writes the joined clients with createExcelFile to the given file
+     */
+    public static Consumer<File> createExcelFile(final File inFile)
+    {
+        final var sorter = new FileSorter();
+        sorter.readWorkbook(inFile, "p", "o");
+        return sorter::createExcelFile;
+    }
+
+    /**
+     * Loads and joins the input file once
+     * @param inFile generated registry export
+     * @return writes the joined clients with createFile to the given file
+     */
+    public static Consumer<File> createFile(final File inFile)
+    {
+        final var sorter = new FileSorter();
+        sorter.readWorkbook(inFile, "p", "o");
+        return outFile -> sorter.createFile(outFile.getPath());
+    }
+
+    /**
+     * Loads and joins the input file once
+     * @param inFile generated registry export
+     * @return writes the joined clients with exportCsv (plain, with location files) to the given directory
+     */
+    public static Consumer<File> exportCsv(final File inFile)
+    {
+        final var sorter = new FileSorter();
+        sorter.readWorkbook(inFile, "p", "o");
+        return outDir -> sorter.exportCsv(outDir, false, true);
+    }
+
+    /**
+     * @param capacity cell texts the cache remembers; 0 leaves a single entry per segment, so almost every call parses
+     * @return a fresh PhoneNormalizer's normalize
+     */
+    public static UnaryOperator<String> normalizePhone(final Integer capacity) { return new PhoneNormalizer("AE", capacity)::normalize; }
+
+    public static UnaryOperator<String> reformatNumber() { return FilterUtils::reformatNumber; }
+    public static Predicate<String> isValidNumber() { return FilterUtils::isValidNumber; }
+    public static Predicate<String> isValidEmail() { return FilterUtils::isValidEmail; }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> field(final FileSorter sorter, final String name) throws ReflectiveOperationException
+    {
+        final Field field = FileSorter.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return (List<T>) field.get(sorter);
+    }
+
+    private static Owner copy(final Owner owner)
+    {
+        final var copy = new Owner();
+        copy.setName(owner.getName());
+        copy.setEmail(owner.getEmail());
+        copy.setSex(owner.getSex());
+        copy.setpNum(owner.getpNum());
+        copy.getPhones().addAll(owner.getPhones());
+        return copy;
+    }
+}
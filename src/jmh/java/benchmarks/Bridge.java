@@ -0,0 +1,28 @@
+package benchmarks;
+
+/**
+ * Looks up the entry points that BenchmarkBridge (default package) hands out for the application classes
+ */
+final class Bridge
+{
+    private Bridge() {}
+
+    /**
+     * Calls a static method of BenchmarkBridge
+     * @param method method name
+     * @param args arguments, matched by their runtime classes
+     * @return the functional object returned by the method
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T get(final String method, final Object... args)
+    {
+        try
+        {
+            final Class<?>[] types = new Class<?>[args.length];
+            for (int i = 0; i < args.length; i++) types[i] = args[i] instanceof Boolean ? boolean.class : args[i].getClass();
+
+            return (T) Class.forName("BenchmarkBridge").getMethod(method, types).invoke(null, args);
+        }
+        catch (ReflectiveOperationException e) { throw new IllegalStateException("BenchmarkBridge." + method, e); }
+    }
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Writing the joined clients out with createExcelFile, createFile and exportCsv
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ExportBenchmark
+{
+    private Consumer<File> createExcelFile;
+    private Consumer<File> createFile;
+    private Consumer<File> exportCsv;
+    private File outDir;
+
+    @Setup
+    public void setup(final RegistryState registry) throws IOException
+    {
+        createExcelFile = Bridge.get("createExcelFile", registry.inFile);
+        createFile = Bridge.get("createFile", registry.inFile);
+        exportCsv = Bridge.get("exportCsv", registry.inFile);
+        outDir = Files.createTempDirectory("databasefilter-export").toFile();
+    }
+
+    @TearDown
+    public void cleanUp()
+    {
+        final File[] files = outDir.listFiles();
+        if (files != null) for (final File file : files) file.delete();
+        outDir.delete();
+    }
+
+    @Benchmark
+    public void createExcelFile() { createExcelFile.accept(new File(outDir, "clients.xlsx")); }
+
+    @Benchmark
+    public void createFile() { createFile.accept(new File(outDir, "clients.txt")); }
+
+    @Benchmark
+    public void exportCsv() { exportCsv.accept(outDir); } //all, investors, homeowners and location files in one pass
+}
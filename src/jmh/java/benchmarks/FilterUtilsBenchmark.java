@@ -0,0 +1,92 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * The FilterUtils phone and email checks against their previous implementation (LegacyFilterUtils), over the same
+ * cell texts, and the libphonenumber-backed PhoneNormalizer with and without its cache. Run with -prof gc to compare
+ * the allocation rates
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterUtilsBenchmark
+{
+    private static final int SAMPLES = 1024;
+
+    private String[] phones;
+    private String[] formattedPhones;
+    private String[] emails;
+
+    private UnaryOperator<String> reformatNumber;
+    private Predicate<String> isValidNumber;
+    private Predicate<String> isValidEmail;
+    private UnaryOperator<String> normalizePhone;
+    private UnaryOperator<String> normalizePhoneUncached;
+
+    @Setup
+    public void setup()
+    {
+        reformatNumber = Bridge.get("reformatNumber");
+        isValidNumber = Bridge.get("isValidNumber");
+        isValidEmail = Bridge.get("isValidEmail");
+        normalizePhone = Bridge.get("normalizePhone", SAMPLES * 4);
+        normalizePhoneUncached = Bridge.get("normalizePhone", 0);
+
+        phones = RegistryExportGenerator.samplePhones(SAMPLES, 42L);
+        emails = RegistryExportGenerator.sampleEmails(SAMPLES, 42L);
+
+        formattedPhones = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) formattedPhones[i] = reformatNumber.apply(phones[i]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void reformatNumber(final Blackhole bh) { for (final String phone : phones) bh.consume(reformatNumber.apply(phone)); }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void reformatNumberLegacy(final Blackhole bh) { for (final String phone : phones) bh.consume(LegacyFilterUtils.reformatNumber(phone)); }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void isValidNumber(final Blackhole bh) { for (final String phone : formattedPhones) bh.consume(isValidNumber.test(phone)); }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void isValidNumberLegacy(final Blackhole bh) { for (final String phone : formattedPhones) bh.consume(LegacyFilterUtils.isValidNumber(phone)); }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void normalizePhone(final Blackhole bh) { for (final String phone : phones) bh.consume(normalizePhone.apply(phone)); }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void normalizePhoneUncached(final Blackhole bh) { for (final String phone : phones) bh.consume(normalizePhoneUncached.apply(phone)); }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void isValidEmail(final Blackhole bh) { for (final String email : emails) bh.consume(isValidEmail.test(email)); }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void isValidEmailLegacy(final Blackhole bh) { for (final String email : emails) bh.consume(LegacyFilterUtils.isValidEmail(email)); }
+}
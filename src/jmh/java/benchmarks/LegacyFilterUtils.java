@@ -0,0 +1,90 @@
+package benchmarks;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The FilterUtils phone and email checks as they were before the allocation-free rewrite, kept as the baseline the
+ * current methods are measured against
+ */
+final class LegacyFilterUtils
+{
+    private LegacyFilterUtils() {}
+
+    static String reformatNumber(final String phoneNumber)
+    {
+        final var newNum = new StringBuilder();
+        final char[] num = phoneNumber.toCharArray();
+
+        for (final char c : num) if (Character.isDigit(c)) newNum.append(c);
+
+        if (    newNum.substring(0,3).equals("050") ||
+                newNum.substring(0,3).equals("052") ||
+                newNum.substring(0,3).equals("055") ||
+                newNum.substring(0,3).equals("056") ||
+                newNum.substring(0,3).equals("057") ||
+                newNum.substring(0,3).equals("058")) newNum.replace(0, 1, "971");
+
+        if ((   newNum.substring(0,2).equals("50") ||
+                newNum.substring(0,2).equals("52") ||
+                newNum.substring(0,2).equals("55") ||
+                newNum.substring(0,2).equals("56") ||
+                newNum.substring(0,2).equals("57") ||
+                newNum.substring(0,2).equals("58"))
+                && newNum.length() == 9) newNum.insert(0, "971");
+
+        if (newNum.substring(0,5).equals("97105")) newNum.deleteCharAt(3);
+
+        if (newNum.substring(0,2).equals("00")) newNum.delete(0,2);
+
+        return newNum.toString().trim();
+    }
+
+    static boolean isValidNumber(final String num)
+    {
+        boolean a = num.startsWith("9715") &&
+                (num.substring(4).equals("000") &&
+                        num.substring(4).equals("0000") &&
+                        num.substring(4).equals("00000") &&
+                        num.substring(4).equals("000000") &&
+                        num.substring(4).equals("0000000") &&
+                        num.substring(4).equals("00000000"));
+        boolean b = num.startsWith("971") && num.length() != 12;
+        boolean c = num.startsWith("04");
+
+        return !a && !b && !c;
+    }
+
+    static boolean isValidEmail(String eMail)
+    {
+        if (!eMail.contains("@")) return false;
+
+        final String[] parts = eMail.split("@");
+        final String[] second_part = parts[1].split("\\.");
+
+        boolean a = parts[0].length() == 1;
+        boolean b = parts[0].contains("dummy");
+
+        boolean c = second_part[0].length() == 1;
+        boolean d = isValidEmailHelper(second_part[0]);
+
+        boolean e = isValidEmailFormat(eMail);
+
+        return !a && !b && !c && !d && e;
+    }
+
+    private static boolean isValidEmailFormat(String eMail)
+    {
+        final String ePattern = "^[a-zA-Z0-9.!#$%&'*+/=?^_`{|}~-]+@((\\[[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}\\])|(([a-zA-Z\\-0-9]+\\.)+[a-zA-Z]{2,}))$";
+        Pattern p = java.util.regex.Pattern.compile(ePattern);
+        Matcher m = p.matcher(eMail);
+        return m.matches();
+    }
+
+    private static boolean isValidEmailHelper(String part)
+    {
+        try { Integer.parseInt(part); }
+        catch (NumberFormatException e) { return false; }
+        return true;
+    }
+}
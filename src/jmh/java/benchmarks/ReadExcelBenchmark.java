@@ -0,0 +1,49 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Reading a property sheet and an owner sheet, including the join, through each ingestion path
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReadExcelBenchmark
+{
+    private Consumer<File> readExcel;
+    private Consumer<File> readExcelStreaming;
+    private Consumer<File> readWorkbook;
+
+    @Setup
+    public void setup()
+    {
+        readExcel = Bridge.get("readExcel");
+        readExcelStreaming = Bridge.get("readExcelStreaming");
+        readWorkbook = Bridge.get("readWorkbook");
+    }
+
+    @Benchmark
+    public void readExcel(final RegistryState registry) { readExcel.accept(registry.inFile); }
+
+    @Benchmark
+    public void readExcelStreaming(final RegistryState registry) { readExcelStreaming.accept(registry.inFile); }
+
+    @Benchmark
+    public void readWorkbook(final RegistryState registry) { readWorkbook.accept(registry.inFile); }
+}
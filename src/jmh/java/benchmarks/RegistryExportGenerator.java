@@ -0,0 +1,237 @@
+package benchmarks;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes synthetic land-registry exports in the layout FileSorter reads: sheet 0 holds the properties and sheet 1 the
+ * owners. The same seed always produces the same workbook.
+ *
+ * The data mimics the real exports: investors that own several units, co-owners that share a phone number, the same
+ * person's phone written in different formats across rows and columns, corporate and royal owners that must be
+ * rejected, landlines, dummy emails and owners with no contact details at all.
+ */
+public final class RegistryExportGenerator
+{
+    private static final String[] COMMUNITIES = {"Town Square", "DAMAC Hills", "Arabian Ranches", "Jumeirah Village Circle", "Dubai Marina"};
+    private static final String[] PROJECTS = {"Safi", "Hayat", "Zahra", "Noor", "Jenna", "Rawda", "Zahra Breeze", "Warda"};
+    private static final String[] ROOMS = {"Studio", "1 B/R", "2 B/R", "3 B/R", "4 B/R"};
+    private static final String[] FIRST_NAMES = {"MOHAMMED", "Mohamed", "AHMED", "Fatima", "OMAR", "Aisha", "JOHN", "Sarah", "RAJESH", "Priya", "ELENA", "Ivan", "LI", "Wei"};
+    private static final String[] FAMILY_NAMES = {"AL MANSOORI", "Khan", "SMITH", "Patel", "IVANOVA", "Al Nuaimi", "SHARMA", "Chen", "O'BRIEN", "Haddad"};
+    private static final String[] CORPORATES = {"EMAAR PROPERTIES PJSC", "DUBAI ISLAMIC BANK", "NAKHEEL DEVELOPMENT LIMITED", "ALPHA REAL ESTATE L.L.C",
+            "GULF CAPITAL INVESTMENT CO", "H.H. SHEIKH RASHID", "TAMWEEL FINANCE", "UNITED ENGINEERING (L.L.C)"};
+    private static final String[] PHONE_FORMATS = {"050-%07d", "+971 55 %07d", "00971-56%07d", "52%07d", "+971 (0)58 %07d", "0097152%07d"};
+
+    private static final String[] PROPERTY_HEADERS = {"P-NUMBER", "AREA", "PROJECT", "ROOMS DESCRIPTION", "ACTUAL AREA"};
+    private static final String[] OWNER_HEADERS = {"P-NUMBER", "NAME", "GENDER", "EMAIL", "PHONE", "MOBILE", "SECONDARY MOBILE"};
+
+    private static final int ROW_WINDOW = 1000;
+
+    private RegistryExportGenerator() {}
+
+    /**
+     * A person that can own several units
+     */
+    private static final class Person
+    {
+        final String name;
+        final String sex;
+        final String email;
+        final int mobile; //the 7 subscriber digits
+        final int secondMobile; //-1 if the person has a single number
+
+        Person(final Random random, final int id)
+        {
+            name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + FAMILY_NAMES[random.nextInt(FAMILY_NAMES.length)] + " " + id;
+            sex = random.nextBoolean() ? "Male" : "Female";
+
+            final int emailKind = random.nextInt(10);
+            email = emailKind < 5 ? "owner" + id + "@mail.com" : emailKind < 6 ? "dummy" + id + "@dummy.com" : emailKind < 7 ? "1@h.com" : "";
+
+            mobile = random.nextInt(10_000_000);
+            secondMobile = random.nextInt(4) == 0 ? random.nextInt(10_000_000) : -1;
+        }
+    }
+
+    /**
+     * Writes a workbook with the given number of properties; the owner sheet gets one row per owner of each property
+     * @param outFile output location
+     * @param rows number of properties
+     * @param seed random seed
+     * @throws IOException if the file can't be written
+     */
+    public static void generate(final File outFile, final int rows, final long seed) throws IOException
+    {
+        final var random = new Random(seed);
+        final List<Person> owners = assignOwners(random, rows);
+        final var workbook = new SXSSFWorkbook(ROW_WINDOW);
+
+        try (final var output = new FileOutputStream(outFile))
+        {
+            final Sheet properties = workbook.createSheet("Properties");
+            final Sheet ownerSheet = workbook.createSheet("Owners");
+            header(properties, PROPERTY_HEADERS);
+            header(ownerSheet, OWNER_HEADERS);
+
+            int ownerRow = 1;
+            for (int i = 0; i < rows; i++)
+            {
+                final int pNum = 100_000 + i;
+
+                final Row prop = properties.createRow(i + 1);
+                prop.createCell(0).setCellValue(pNum);
+                prop.createCell(1).setCellValue(COMMUNITIES[random.nextInt(COMMUNITIES.length)]);
+                prop.createCell(2).setCellValue(PROJECTS[random.nextInt(PROJECTS.length)]);
+                prop.createCell(3).setCellValue(ROOMS[random.nextInt(ROOMS.length)]);
+                prop.createCell(4).setCellValue(400 + random.nextInt(3600) + random.nextInt(100) / 100.0);
+
+                final Person person = owners.get(i);
+                ownerRow = writeOwner(ownerSheet, ownerRow, random, pNum, person);
+
+                if (person != null && random.nextInt(10) == 0) //co-owner sharing the main owner's phone
+                {
+                    final Row row = ownerSheet.createRow(ownerRow++);
+                    row.createCell(0).setCellValue(String.valueOf(pNum));
+                    row.createCell(1).setCellValue(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + person.name.substring(person.name.indexOf(' ') + 1));
+                    row.createCell(2).setCellValue(person.sex.equals("Male") ? "Female" : "Male");
+                    row.createCell(3).setCellValue("");
+                    row.createCell(4).setCellValue(phone(random, person.mobile));
+                }
+            }
+            workbook.write(output);
+        }
+        finally { workbook.dispose(); }
+    }
+
+    /**
+     * Picks the owner of every property: about 5% corporate owners (null), 15% of the people are investors with two to
+     * five units, everyone else owns a single unit
+     */
+    private static List<Person> assignOwners(final Random random, final int rows)
+    {
+        final List<Person> owners = new ArrayList<>(rows);
+        int id = 0;
+
+        while (owners.size() < rows)
+        {
+            if (random.nextInt(20) == 0)
+            {
+                owners.add(null);
+                continue;
+            }
+
+            final var person = new Person(random, id++);
+            final int units = random.nextInt(100) < 15 ? 2 + random.nextInt(4) : 1;
+            for (int u = 0; u < units && owners.size() < rows; u++) owners.add(person);
+        }
+        Collections.shuffle(owners, random); //spread each investor's units across the export
+        return owners;
+    }
+
+    private static int writeOwner(final Sheet sheet, int rowNum, final Random random, final int pNum, final Person person)
+    {
+        final Row row = sheet.createRow(rowNum++);
+        row.createCell(0).setCellValue(pNum);
+
+        if (person == null) //corporate or royal owner
+        {
+            row.createCell(1).setCellValue(CORPORATES[random.nextInt(CORPORATES.length)]);
+            row.createCell(4).setCellValue("04 " + (3_000_000 + random.nextInt(1_000_000)));
+            return rowNum;
+        }
+
+        row.createCell(1).setCellValue(random.nextInt(3) == 0 ? person.name.toUpperCase() : person.name);
+        row.createCell(2).setCellValue(person.sex);
+        row.createCell(3).setCellValue(random.nextInt(8) == 0 ? person.email.toUpperCase() : person.email);
+
+        final int contact = random.nextInt(20);
+        if (contact == 0) return rowNum; //no phone numbers at all
+
+        row.createCell(4).setCellValue(contact == 1 ? "04 " + (2_000_000 + random.nextInt(1_000_000)) : phone(random, person.mobile));
+        row.createCell(5).setCellValue(phone(random, person.mobile)); //the same number written differently
+        if (person.secondMobile != -1) row.createCell(6).setCellValue(phone(random, person.secondMobile));
+
+        return rowNum;
+    }
+
+    private static void header(final Sheet sheet, final String[] headers)
+    {
+        final Row row = sheet.createRow(0);
+        for (int i = 0; i < headers.length; i++) row.createCell(i).setCellValue(headers[i]);
+    }
+
+    /**
+     * @param random random source
+     * @param subscriber the 7 subscriber digits
+     * @return a UAE mobile number in one of the formats found in the exports
+     */
+    static String phone(final Random random, final int subscriber) { return String.format(PHONE_FORMATS[random.nextInt(PHONE_FORMATS.length)], subscriber); }
+
+    /**
+     * @param count number of samples
+     * @param seed random seed
+     * @return phone cell texts in the formats found in the exports, including landlines
+     */
+    static String[] samplePhones(final int count, final long seed)
+    {
+        final var random = new Random(seed);
+        final String[] phones = new String[count];
+
+        for (int i = 0; i < count; i++) phones[i] = random.nextInt(10) == 0 ? "04 " + (2_000_000 + random.nextInt(1_000_000)) : phone(random, random.nextInt(10_000_000));
+        return phones;
+    }
+
+    /**
+     * @param count number of samples
+     * @param seed random seed
+     * @return email cell texts, valid and invalid
+     */
+    static String[] sampleEmails(final int count, final long seed)
+    {
+        final var random = new Random(seed);
+        final String[] emails = new String[count];
+
+        for (int i = 0; i < count; i++) emails[i] = new Person(random, i).email.toLowerCase();
+        return emails;
+    }
+
+    /**
+     * Returns the generated workbook for the given size and seed, writing it on first use
+     * @param rows number of properties
+     * @param seed random seed
+     * @return the cached workbook
+     * @throws IOException if the file can't be written
+     */
+    static File cached(final int rows, final long seed) throws IOException
+    {
+        final var dir = new File(System.getProperty("java.io.tmpdir"), "databasefilter-bench");
+        final var file = new File(dir, "registry-" + rows + "-" + seed + ".xlsx");
+
+        if (!file.isFile())
+        {
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Can't create " + dir);
+
+            final var tmp = new File(dir, file.getName() + ".tmp");
+            generate(tmp, rows, seed);
+            if (!tmp.renameTo(file)) throw new IOException("Can't rename " + tmp);
+        }
+        return file;
+    }
+
+    /**
+     * Writes a workbook: RegistryExportGenerator &lt;out.xlsx&gt; &lt;rows&gt; [seed]
+     */
+    public static void main(final String[] args) throws IOException
+    {
+        generate(new File(args[0]), Integer.parseInt(args[1]), args.length > 2 ? Long.parseLong(args[2]) : 42L);
+    }
+}
@@ -0,0 +1,27 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A generated registry export shared by the file based suites. Override the sizes with -p rows=...
+ */
+@State(Scope.Benchmark)
+public class RegistryState
+{
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"42"})
+    public long seed;
+
+    public File inFile;
+
+    @Setup
+    public void generate() throws IOException { inFile = RegistryExportGenerator.cached(rows, seed); }
+}
@@ -0,0 +1,44 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The owner-property join on its own, on owners and properties that have already been read
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SetPropertyBenchmark
+{
+    @Param({"false", "true"})
+    public boolean identityResolution;
+
+    private Supplier<Runnable> joins;
+    private Runnable join;
+
+    @Setup(Level.Trial)
+    public void load(final RegistryState registry) { joins = Bridge.get("setProperty", registry.inFile, identityResolution); }
+
+    @Setup(Level.Invocation)
+    public void prepare() { join = joins.get(); } //the join changes the owners, so every run gets fresh copies
+
+    @Benchmark
+    public void setProperty() { join.run(); }
+}
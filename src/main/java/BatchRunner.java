@@ -0,0 +1,363 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * Runs FileSorter over many community workbooks at once. Every input is read, joined and written by its own FileSorter
+ * on a pool thread, so a file that fails doesn't stop the others; a summary line per file is printed at the end, and
+ * every processed file leaves a JSON run report (see PipelineMetrics) next to its output.
+ *
+ * Parsing a workbook needs far more heap than the file takes on disk, so besides the number of threads the runner also
+ * limits the memory the inputs in flight are expected to need. Each job reserves an estimate based on its file size
+ * from a budget of MEMORY_SHARE of the maximum heap before it starts, and a job that needs more than the whole budget
+ * waits until it can run on its own.
+ *
+ * Usage: --batch &lt;directory|manifest&gt; --out &lt;directory&gt; [--roles p,o,o] [--threads n] [--csv] [--serve port] [--shards n] [--index file]
+ *
+ * With --index, the batch runs in two phases: every input is read, joined and counted in a persistent OwnerIndex
+ * first, and only once all of them are counted are they written, each client classified as an investor or a homeowner
+ * by the properties it owns in every community of the batch plus those left in the index by earlier runs. The
+ * classification is therefore the same whichever input finishes first; the joined inputs stay in memory until then.
+ *
+ * With --shards, every input is decoded by that many worker processes through a ShardedRun, for inputs too large for
+ * one JVM to decode on its own; the shard files go to a "shards" directory in the output directory.
+ *
+ * With --serve, a LookupService is started before the first input and every finished input is published to it as soon
+ * as it is written, so lookups see each community as its run completes; the process then keeps serving until killed.
+ * Failed inputs are reported once the runs are done, and if the service is stopped the exit code is 1 when any input
+ * failed, like without --serve.
+ *
+ * A directory is scanned for .xlsx files, which all use the --roles sheet layout. A manifest is a text file with one
+ * input per line, optionally followed by its own roles ("Town Square.xlsx p,o,o"); blank lines and lines starting with
+ * '#' are skipped, and relative paths are resolved against the manifest's directory.
+ */
+public class BatchRunner
+{
+    private static final String DEFAULT_ROLES = "p,o";
+    private static final double MEMORY_SHARE = 0.75; //share of the max heap the jobs in flight may claim
+    private static final int EXPANSION = 40; //heap bytes needed per byte of compressed workbook, roughly
+    private static final long MB = 1 << 20;
+
+    /**
+     * One input workbook and the role of each of its sheets
+     */
+    static class Job
+    {
+        final File inFile;
+        final String[] roles;
+
+        Job(final File inFile, final String[] roles)
+        {
+            this.inFile = inFile;
+            this.roles = roles;
+        }
+
+        /**
+         * @return name of the input file without its extension
+         */
+        String name()
+        {
+            final String fileName = inFile.getName();
+            final int dot = fileName.lastIndexOf('.');
+            return dot > 0 ? fileName.substring(0, dot) : fileName;
+        }
+    }
+
+    private final File outDir;
+    private final boolean csv;
+    private final int threads;
+    private final Semaphore memory;
+    private final int memoryPermits;
+    private LookupService lookupService; //null unless the runs are served
+    private int shards; //worker processes per input, 0 to read every input in this process
+    private OwnerIndex ownerIndex; //null to classify every input by its own properties
+
+    /**
+     * @param outDir directory every output is written to
+     * @param csv true to write the CSV files of exportCsv instead of an Excel file per input
+     * @param threads number of inputs processed at the same time at most
+     */
+    public BatchRunner(final File outDir, final boolean csv, final int threads)
+    {
+        this.outDir = outDir;
+        this.csv = csv;
+        this.threads = threads;
+        this.memoryPermits = (int) Math.max(1, Runtime.getRuntime().maxMemory() * MEMORY_SHARE / MB);
+        this.memory = new Semaphore(memoryPermits, true);
+    }
+
+    /**
+     * @param lookupService service every finished input is published to, or null
+     */
+    public void setLookupService(final LookupService lookupService) { this.lookupService = lookupService; }
+
+    /**
+     * @param shards number of worker processes each input is decoded by, or 0 to decode the inputs in this process
+     */
+    public void setShards(final int shards) { this.shards = shards; }
+
+    /**
+     * @param ownerIndex index every input is counted in and classified against, or null
+     */
+    public void setOwnerIndex(final OwnerIndex ownerIndex) { this.ownerIndex = ownerIndex; }
+
+    /**
+     * Processes all the jobs and waits for them to finish
+     * @param jobs the inputs
+     * @return the number of inputs that failed
+     */
+    public int run(final List<Job> jobs) throws InterruptedException
+    {
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, jobs.size())));
+        final List<Future<String>> results = new ArrayList<>();
+        int failed = 0;
+
+        try
+        {
+            if (ownerIndex == null) for (final Job job : jobs) results.add(pool.submit(() -> reserved(job, () -> export(job, load(job)))));
+            else
+            {
+                final List<Future<Loaded>> loads = new ArrayList<>();
+                for (final Job job : jobs) loads.add(pool.submit(() -> reserved(job, () -> load(job))));
+
+                for (final Future<Loaded> load : loads) //count every input before classifying the first one
+                {
+                    try { load.get(); }
+                    catch (ExecutionException e) { } //reported with the results
+                }
+
+                for (int i = 0; i < jobs.size(); i++)
+                {
+                    final Job job = jobs.get(i);
+
+                    try
+                    {
+                        final Loaded loaded = loads.get(i).get();
+                        results.add(pool.submit(() -> export(job, loaded)));
+                    }
+                    catch (ExecutionException e) { results.add(CompletableFuture.failedFuture(e.getCause())); }
+                }
+            }
+
+            for (int i = 0; i < jobs.size(); i++)
+            {
+                try { System.out.println(results.get(i).get()); }
+                catch (ExecutionException e)
+                {
+                    failed++;
+                    System.out.println(jobs.get(i).inFile + ": FAILED - " + e.getCause());
+                    e.getCause().printStackTrace();
+                }
+            }
+        }
+        finally { pool.shutdownNow(); }
+
+        System.out.println((jobs.size() - failed) + " of " + jobs.size() + " inputs processed");
+        return failed;
+    }
+
+    /**
+     * A read and joined input, waiting to be written
+     */
+    private static class Loaded
+    {
+        final FileSorter sorter;
+        final long nanos; //time spent reading and joining
+
+        Loaded(final FileSorter sorter, final long nanos)
+        {
+            this.sorter = sorter;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Runs work on an input once enough of the memory budget is free, and frees it again when the work is done
+     * @param job the input
+     * @param work what to do with it
+     * @return the result of the work
+     */
+    private <T> T reserved(final Job job, final Callable<T> work) throws Exception
+    {
+        final int permits = permits(job.inFile);
+        memory.acquire(permits);
+
+        try { return work.call(); }
+        finally { memory.release(permits); }
+    }
+
+    /**
+     * Reads and joins one input, which also counts it in the owner index
+     * @param job the input
+     * @return the joined input
+     */
+    private Loaded load(final Job job) throws IOException
+    {
+        final long start = System.nanoTime();
+        final var sorter = new FileSorter();
+        sorter.setOwnerIndex(ownerIndex, job.name());
+
+        if (shards > 0) sorter.loadSharded(new ShardedRun(shards, new File(outDir, "shards").toPath()), List.of(new ShardedRun.Input(job.inFile, job.roles)));
+        else sorter.loadWorkbook(job.inFile, null, job.roles);
+
+        return new Loaded(sorter, System.nanoTime() - start);
+    }
+
+    /**
+     * Writes a joined input, publishes it and writes its run report
+     * @param job the input
+     * @param loaded the input read and joined by load
+     * @return the summary line of the input
+     */
+    private String export(final Job job, final Loaded loaded) throws IOException
+    {
+        final long start = System.nanoTime();
+        final FileSorter sorter = loaded.sorter;
+
+        final File out;
+        if (csv) sorter.writeCsv(out = new File(outDir, job.name()), false, true);
+        else sorter.writeExcelFile(out = new File(outDir, job.name() + "_filtered.xlsx"));
+
+        if (lookupService != null) sorter.publishTo(lookupService, job.name());
+
+        sorter.getMetrics().publish();
+        sorter.getMetrics().writeReport(new File(outDir, job.name() + "_report.json").toPath());
+
+        return String.format("%s: %d clients -> %s (%d ms)", job.inFile, sorter.clientCount(), out, (loaded.nanos + System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * @param inFile an input workbook
+     * @return the memory budget, in MB, reserved while the input is processed; never more than the whole budget
+     */
+    private int permits(final File inFile)
+    {
+        final long estimate = inFile.length() * EXPANSION / MB + 1;
+        return (int) Math.min(estimate, memoryPermits);
+    }
+
+    /**
+     * @param source a directory of workbooks or a manifest file
+     * @param roles sheet roles of the inputs that don't name their own
+     * @return one job per input, in file name or manifest order
+     * @throws IOException if the directory or the manifest can't be read
+     */
+    static List<Job> jobs(final Path source, final String roles) throws IOException
+    {
+        final List<Job> jobs = new ArrayList<>();
+
+        if (Files.isDirectory(source))
+        {
+            try (final Stream<Path> files = Files.list(source))
+            {
+                files.filter(file -> file.getFileName().toString().toLowerCase().endsWith(".xlsx"))
+                        .filter(file -> !file.getFileName().toString().startsWith("~$")) //Excel lock files
+                        .sorted()
+                        .forEach(file -> jobs.add(new Job(file.toFile(), roles.split(","))));
+            }
+            return jobs;
+        }
+
+        final Path base = source.toAbsolutePath().getParent();
+        for (final String line : Files.readAllLines(source))
+        {
+            final String entry = line.strip();
+            if (entry.isEmpty() || entry.startsWith("#")) continue;
+
+            //the roles are the last token if it only consists of sheet roles, so that paths may contain spaces
+            final int space = entry.lastIndexOf(' ');
+            final boolean hasRoles = space > 0 && entry.substring(space + 1).matches("[A-Za-z_](,[A-Za-z_])*");
+
+            final String path = hasRoles ? entry.substring(0, space).strip() : entry;
+            final String fileRoles = hasRoles ? entry.substring(space + 1) : roles;
+            jobs.add(new Job(base.resolve(path).toFile(), fileRoles.split(",")));
+        }
+        return jobs;
+    }
+
+    /**
+     * Entry point of the batch mode
+     * @param args --batch &lt;directory|manifest&gt; --out &lt;directory&gt; [--roles p,o,o] [--threads n] [--csv] [--serve port] [--shards n] [--index file]
+     * @return the process exit code: 0 if every input was processed
+     */
+    public static int execute(final String[] args)
+    {
+        Path source = null;
+        File outDir = null;
+        String roles = DEFAULT_ROLES;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean csv = false;
+        int servePort = -1;
+        int shards = 0;
+        Path index = null;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                switch (args[i])
+                {
+                    case "--batch" -> source = Path.of(args[++i]);
+                    case "--out" -> outDir = new File(args[++i]);
+                    case "--roles" -> roles = args[++i];
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    case "--csv" -> csv = true;
+                    case "--serve" -> servePort = Integer.parseInt(args[++i]);
+                    case "--shards" -> shards = Integer.parseInt(args[++i]);
+                    case "--index" -> index = Path.of(args[++i]);
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (source == null || outDir == null) throw new IllegalArgumentException("--batch and --out are required");
+        }
+        catch (RuntimeException e)
+        {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: --batch <directory|manifest> --out <directory> [--roles p,o,o] [--threads n] [--csv] [--serve port] [--shards n] [--index file]");
+            return 2;
+        }
+
+        try (final OwnerIndex ownerIndex = index == null ? null : OwnerIndex.open(index))
+        {
+            Files.createDirectories(outDir.toPath());
+            final List<Job> jobs = jobs(source, roles);
+            final var runner = new BatchRunner(outDir, csv, threads);
+            runner.setShards(shards);
+            runner.setOwnerIndex(ownerIndex);
+
+            if (servePort < 0) return runner.run(jobs) == 0 ? 0 : 1;
+
+            final var service = new LookupService(servePort, Runtime.getRuntime().availableProcessors());
+            service.start();
+            System.out.println("Serving lookups on http://127.0.0.1:" + service.getPort() + "/owners");
+
+            runner.setLookupService(service);
+            final int failed = runner.run(jobs);
+            if (failed > 0) System.err.println(failed + " of " + jobs.size() + " inputs failed, serving the others");
+
+            service.await(); //keep serving the last runs
+            return failed == 0 ? 0 : 1;
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return 1;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the prospective clients to several CSV files in a single pass: every client is classified and turned into a
+ * CSV row once, and the encoded row is then copied into each output it belongs to (all clients, investors, homeowners
+ * and, optionally, one file per property location).
+ *
+ * Each output collects its rows in a direct buffer and only hands it to the file channel (or to gzip) once it is full.
+ * Fields are escaped as in RFC 4180: a field holding a comma, a quote or a line break is quoted, with quotes doubled.
+ *
+ * At most MAX_OPEN_LOCATIONS location files are open at once. When another one is needed, the least recently used is
+ * flushed and closed, its buffer is handed to the new one, and it is reopened for appending the next time a client
+ * lives there. A gzipped location file that was reopened holds several gzip members one after the other, which gunzip
+ * and GZIPInputStream read as one stream.
+ */
+public class ClientExporter implements Closeable
+{
+    private static final int BUFFER_SIZE = 1 << 22; //bytes buffered by the all, investor and homeowner outputs
+    private static final int PARTITION_BUFFER_SIZE = 1 << 18; //bytes buffered by each location output
+    private static final int MAX_OPEN_LOCATIONS = 64; //location files open at the same time
+
+    private static final byte[] HEADER = "Name,Gender,e-Mail,Phone Number(s),Property Count,Properties\r\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Path outDir;
+    private final boolean gzip;
+    private final boolean byLocation;
+
+    private final Sink all;
+    private final Sink investors;
+    private final Sink homeowners;
+    private final Map<String, Sink> locations = new LinkedHashMap<>(16, 0.75f, true); //location file name -> open output, least recently used first
+    private final Set<String> created = new HashSet<>(); //location files written so far, reopened for appending
+
+    private ToIntFunction<Owner> portfolio = client -> client.getProperties().size(); //properties that make a client an investor or a homeowner
+    private byte[] row = new byte[512]; //the encoded row shared by all outputs
+    private int rowLength;
+
+    /**
+     * Creates the output directory and opens the all, investors and homeowners files
+     * @param outDir directory the CSV files are written to
+     * @param gzip true to write .csv.gz files instead of plain .csv
+     * @param byLocation true to also write a file per property location
+     * @throws IOException if the directory or the files can't be created
+     */
+    public ClientExporter(final Path outDir, final boolean gzip, final boolean byLocation) throws IOException
+    {
+        this.outDir = Files.createDirectories(outDir);
+        this.gzip = gzip;
+        this.byLocation = byLocation;
+
+        final List<Sink> opened = new ArrayList<>(3);
+        try
+        {
+            for (final String name : new String[]{"all", "investors", "homeowners"}) opened.add(open(name, ByteBuffer.allocateDirect(BUFFER_SIZE), false));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            try { closeAll(opened); } //don't leave the files that did open behind
+            catch (IOException suppressed) { e.addSuppressed(suppressed); }
+            throw e;
+        }
+
+        all = opened.get(0);
+        investors = opened.get(1);
+        homeowners = opened.get(2);
+    }
+
+    /**
+     * @param portfolio the number of properties a client counts as owning when it is written to the investors or the
+     *                  homeowners, e.g. over every community of an OwnerIndex; by default the client's own properties
+     */
+    public void setPortfolio(final ToIntFunction<Owner> portfolio) { this.portfolio = portfolio; }
+
+    /**
+     * Writes every client to the outputs it belongs to
+     * @param clients the prospective clients, in the order they should appear in
+     * @throws IOException if writing fails
+     */
+    public void export(final Iterable<Owner> clients) throws IOException
+    {
+        for (final Owner client : clients) write(client);
+    }
+
+    /**
+     * Writes one client to the outputs it belongs to
+     * @param client a prospective client
+     * @throws IOException if writing fails
+     */
+    public void write(final Owner client) throws IOException
+    {
+        encode(client);
+
+        all.put(row, rowLength);
+
+        final int owned = portfolio.applyAsInt(client);
+        if (owned > 1) investors.put(row, rowLength);
+        else if (owned == 1) homeowners.put(row, rowLength);
+
+        if (byLocation) writeLocations(client);
+    }
+
+    /**
+     * Copies the current row into the file of each distinct location the client owns property in
+     * @param client a prospective client
+     */
+    private void writeLocations(final Owner client) throws IOException
+    {
+        final List<Property> properties = client.getProperties();
+
+        if (properties.size() == 1) location(locationName(properties.get(0))).put(row, rowLength); //homeowners: no set needed
+        else
+        {
+            final Set<String> written = new HashSet<>(); //by name, as an output may be closed and reopened in between
+            for (final Property property : properties)
+            {
+                final String name = locationName(property);
+                if (written.add(name)) location(name).put(row, rowLength);
+            }
+        }
+    }
+
+    /**
+     * @param property an owned property
+     * @return the name of the property's location file
+     */
+    private static String locationName(final Property property)
+    {
+        return "location-" + fileName(property == null ? null : property.getLocation());
+    }
+
+    /**
+     * @param name a location file name
+     * @return the output of the location, opened on first use and reopened for appending after it was closed to make
+     *         room for another location
+     */
+    private Sink location(final String name) throws IOException
+    {
+        Sink sink = locations.get(name);
+        if (sink == null)
+        {
+            ByteBuffer buffer = null;
+            if (locations.size() == MAX_OPEN_LOCATIONS)
+            {
+                final var eldest = locations.values().iterator();
+                final Sink evicted = eldest.next();
+
+                eldest.remove();
+                evicted.close();
+                buffer = evicted.buffer; //drained by close
+            }
+
+            sink = open(name, buffer != null ? buffer : ByteBuffer.allocateDirect(PARTITION_BUFFER_SIZE), !created.add(name));
+            locations.put(name, sink);
+        }
+        return sink;
+    }
+
+    /**
+     * @param location location text from the registry
+     * @return the location with anything but letters, digits, '-' and '_' replaced, usable as part of a file name
+     */
+    static String fileName(final String location)
+    {
+        if (location == null || location.isBlank()) return "unknown";
+
+        final char[] chars = location.trim().toCharArray();
+        for (int i = 0; i < chars.length; i++)
+        {
+            final char c = chars[i];
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_')) chars[i] = '_';
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Opens an output file and, unless appending, writes the header row into it; doesn't touch the row buffer
+     * @param name file name without the extension
+     * @param buffer the output's buffer, empty
+     * @param append true to add to a file this exporter wrote before, false to replace the file
+     */
+    private Sink open(final String name, final ByteBuffer buffer, final boolean append) throws IOException
+    {
+        final Path file = outDir.resolve(name + (gzip ? ".csv.gz" : ".csv"));
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+        try
+        {
+            final WritableByteChannel target = gzip ? Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16)) : channel;
+            final var sink = new Sink(target, buffer);
+            if (!append) sink.put(HEADER, HEADER.length);
+
+            return sink;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes the client's CSV row into the row buffer
+     * @param client a prospective client
+     */
+    private void encode(final Owner client)
+    {
+        rowLength = 0;
+
+        field(client.getName(), true);
+        field(client.getSex(), false);
+        field(client.getEmail(), false);
+        field(String.join(" | ", client.getPhoneNums()), false);
+        field(Integer.toString(client.getProperties().size()), false);
+        field(properties(client.getProperties()), false);
+        endRow();
+    }
+
+    /**
+     * @param properties properties of a client
+     * @return the properties as "pNum: name, location, bedrooms", separated by " | "
+     */
+    private static String properties(final List<Property> properties)
+    {
+        final var sb = new StringBuilder();
+
+        for (final Property property : properties)
+        {
+            if (property == null) continue;
+            if (sb.length() > 0) sb.append(" | ");
+            sb.append(property.getpNum()).append(": ").append(property.getName()).append(", ").append(property.getLocation()).append(", ").append(property.getBedrooms());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends a field to the row, quoting it if it holds a delimiter, a quote or a line break
+     * @param value field text, null for an empty field
+     * @param first true for the first field of the row, which isn't preceded by a comma
+     */
+    private void field(final String value, final boolean first)
+    {
+        if (!first) put((byte) ',');
+        if (value == null) return;
+
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++)
+        {
+            final char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (quote) put((byte) '"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+
+            if (c == '"') put((byte) '"'); //doubled quote
+            if (c < 0x80) put((byte) c);
+            else if (c < 0x800)
+            {
+                put((byte) (0xC0 | c >> 6));
+                put((byte) (0x80 | c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                final int cp = Character.toCodePoint(c, value.charAt(++i));
+                put((byte) (0xF0 | cp >> 18));
+                put((byte) (0x80 | cp >> 12 & 0x3F));
+                put((byte) (0x80 | cp >> 6 & 0x3F));
+                put((byte) (0x80 | cp & 0x3F));
+            }
+            else if (Character.isSurrogate(c)) put((byte) '?'); //unpaired surrogate, as String.getBytes does
+            else
+            {
+                put((byte) (0xE0 | c >> 12));
+                put((byte) (0x80 | c >> 6 & 0x3F));
+                put((byte) (0x80 | c & 0x3F));
+            }
+        }
+        if (quote) put((byte) '"');
+    }
+
+    private void endRow()
+    {
+        put((byte) '\r');
+        put((byte) '\n');
+    }
+
+    private void put(final byte b)
+    {
+        if (rowLength == row.length) row = Arrays.copyOf(row, row.length * 2);
+        row[rowLength++] = b;
+    }
+
+    /**
+     * Flushes and closes every output
+     * @throws IOException if any of the outputs can't be written, after trying to close all of them
+     */
+    @Override
+    public void close() throws IOException { closeAll(outputs()); }
+
+    /**
+     * Closes every sink, even if closing one of them fails
+     * @param sinks the outputs to close
+     * @throws IOException the first failure, with the later ones suppressed
+     */
+    private static void closeAll(final List<Sink> sinks) throws IOException
+    {
+        IOException failure = null;
+
+        for (final Sink sink : sinks)
+        {
+            try { sink.close(); }
+            catch (IOException e)
+            {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private List<Sink> outputs()
+    {
+        final var outputs = new ArrayList<Sink>(List.of(all, investors, homeowners));
+        outputs.addAll(locations.values());
+        return outputs;
+    }
+
+    /**
+     * An output file with its own direct buffer
+     */
+    private static class Sink implements Closeable
+    {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer;
+
+        Sink(final WritableByteChannel channel, final ByteBuffer buffer)
+        {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        void put(final byte[] bytes, final int length) throws IOException
+        {
+            int offset = 0;
+            while (offset < length)
+            {
+                if (!buffer.hasRemaining()) drain();
+
+                final int chunk = Math.min(buffer.remaining(), length - offset);
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        private void drain() throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try { drain(); }
+            finally { channel.close(); } //also finishes the gzip stream
+        }
+    }
+}
@@ -0,0 +1,265 @@
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Answers queries like "investors with 3+ properties in Town Square with 2 B/R units over 1500 sq ft" over a list of
+ * prospective clients with compressed (Roaring) bitmap indexes instead of scanning the clients.
+ *
+ * Every property a client owns gets a slot number, and the location, project, bedrooms and size bucket indexes map
+ * each value to the bitmap of the slots that have it, so that the conditions on one property are combined with AND at
+ * slot level: a client matches "in Town Square with 2 B/R over 1500 sq ft" only if one of their properties has all
+ * three. The matching slots are then turned into client numbers and combined with the property count index, which maps
+ * each count to the bitmap of the clients owning that many properties.
+ *
+ * The index is a snapshot of the list it was built from; build a new one after the clients change.
+ */
+public class ClientIndex
+{
+    private static final double BUCKET_WIDTH = 500; //sq ft covered by each size bucket
+
+    private final List<Owner> clients;
+
+    //slot level
+    private final int[] slotClient; //slot -> client number
+    private final double[] slotSize; //slot -> property size
+    private final Map<String, RoaringBitmap> locations = new HashMap<>();
+    private final Map<String, RoaringBitmap> projects = new HashMap<>();
+    private final Map<String, RoaringBitmap> bedrooms = new HashMap<>();
+    private final TreeMap<Integer, RoaringBitmap> sizeBuckets = new TreeMap<>();
+
+    //client level
+    private final TreeMap<Integer, RoaringBitmap> propertyCounts = new TreeMap<>();
+    private final RoaringBitmap allClients = new RoaringBitmap();
+
+    /**
+     * Indexes the clients and the properties they own
+     * @param clients the prospective clients; the list is copied
+     */
+    public ClientIndex(final List<Owner> clients)
+    {
+        this.clients = List.copyOf(clients);
+
+        int slots = 0;
+        for (final Owner client : this.clients) slots += client.getProperties().size();
+
+        slotClient = new int[slots];
+        slotSize = new double[slots];
+
+        int slot = 0;
+        for (int id = 0; id < this.clients.size(); id++)
+        {
+            final Owner client = this.clients.get(id);
+            allClients.add(id);
+            propertyCounts.computeIfAbsent(client.getProperties().size(), k -> new RoaringBitmap()).add(id);
+
+            for (final Property property : client.getProperties())
+            {
+                slotClient[slot] = id;
+
+                if (property != null)
+                {
+                    slotSize[slot] = property.getSize();
+
+                    add(locations, property.getLocation(), slot);
+                    add(projects, property.getName(), slot);
+                    add(bedrooms, property.getBedrooms(), slot);
+                    sizeBuckets.computeIfAbsent(bucket(property.getSize()), k -> new RoaringBitmap()).add(slot);
+                }
+                slot++;
+            }
+        }
+
+        //bitmaps are built in increasing order, which leaves run containers unused until they are optimized
+        locations.values().forEach(RoaringBitmap::runOptimize);
+        projects.values().forEach(RoaringBitmap::runOptimize);
+        bedrooms.values().forEach(RoaringBitmap::runOptimize);
+        sizeBuckets.values().forEach(RoaringBitmap::runOptimize);
+        propertyCounts.values().forEach(RoaringBitmap::runOptimize);
+        allClients.runOptimize();
+    }
+
+    private static void add(final Map<String, RoaringBitmap> index, final String value, final int slot)
+    {
+        if (value != null) index.computeIfAbsent(key(value), k -> new RoaringBitmap()).add(slot);
+    }
+
+    /**
+     * @return a value as it is looked up in the indexes: trimmed and upper case
+     */
+    private static String key(final String value) { return value.trim().toUpperCase(Locale.ROOT); }
+
+    private static int bucket(final double size) { return (int) Math.floor(size / BUCKET_WIDTH); }
+
+    /**
+     * @return a query matching every client, to be narrowed down with the query's conditions
+     */
+    public Query query() { return new Query(); }
+
+    /**
+     * @return number of indexed clients
+     */
+    public int size() { return clients.size(); }
+
+    /**
+     * A combination of conditions. Conditions on different fields must all hold; the values given to one field are
+     * alternatives. The property conditions (location, project, bedrooms, size) must all hold for the same property
+     */
+    public class Query
+    {
+        private final List<RoaringBitmap> slotConditions = new ArrayList<>(); //each entry already ORs its alternatives
+        private double minSize = Double.NEGATIVE_INFINITY, maxSize = Double.POSITIVE_INFINITY;
+        private int minProperties = 0, maxProperties = Integer.MAX_VALUE;
+
+        private Query() {}
+
+        /**
+         * @param values property locations, any of which matches
+         * @return this query
+         */
+        public Query location(final String... values) { return slotCondition(locations, values); }
+
+        /**
+         * @param values project names, any of which matches
+         * @return this query
+         */
+        public Query project(final String... values) { return slotCondition(projects, values); }
+
+        /**
+         * @param values bedroom descriptions like "2 B/R" or "Studio", any of which matches
+         * @return this query
+         */
+        public Query bedrooms(final String... values) { return slotCondition(bedrooms, values); }
+
+        /**
+         * @param min smallest property size in sq ft, inclusive
+         * @param max largest property size in sq ft, exclusive
+         * @return this query
+         */
+        public Query size(final double min, final double max)
+        {
+            minSize = Math.max(minSize, min);
+            maxSize = Math.min(maxSize, max);
+            return this;
+        }
+
+        /**
+         * @param min fewest properties a client owns, inclusive; 2 for investors
+         * @param max most properties a client owns, inclusive; 1 for homeowners
+         * @return this query
+         */
+        public Query properties(final int min, final int max)
+        {
+            minProperties = Math.max(minProperties, min);
+            maxProperties = Math.min(maxProperties, max);
+            return this;
+        }
+
+        public Query investors() { return properties(2, Integer.MAX_VALUE); }
+        public Query homeowners() { return properties(1, 1); }
+
+        private Query slotCondition(final Map<String, RoaringBitmap> index, final String... values)
+        {
+            final var alternatives = new RoaringBitmap();
+            for (final String value : values)
+            {
+                final RoaringBitmap slots = index.get(key(value));
+                if (slots != null) alternatives.or(slots);
+            }
+            slotConditions.add(alternatives);
+            return this;
+        }
+
+        /**
+         * @return the numbers of the matching clients
+         */
+        public RoaringBitmap bitmap()
+        {
+            final RoaringBitmap matches = clientsByCount();
+            if (slotConditions.isEmpty() && minSize == Double.NEGATIVE_INFINITY && maxSize == Double.POSITIVE_INFINITY) return matches;
+
+            return RoaringBitmap.and(matches, clientsOf(matchingSlots()));
+        }
+
+        /**
+         * @return the matching clients, in the order of the indexed list
+         */
+        public List<Owner> run()
+        {
+            final List<Owner> result = new ArrayList<>();
+            bitmap().forEach((int id) -> result.add(clients.get(id)));
+            return Collections.unmodifiableList(result);
+        }
+
+        /**
+         * @return the number of matching clients
+         */
+        public int count() { return bitmap().getCardinality(); }
+
+        /**
+         * @return the clients whose property count is within bounds
+         */
+        private RoaringBitmap clientsByCount()
+        {
+            if (minProperties <= 0 && maxProperties == Integer.MAX_VALUE) return allClients.clone();
+            if (minProperties > maxProperties) return new RoaringBitmap();
+
+            return RoaringBitmap.or(propertyCounts.subMap(minProperties, true, maxProperties, true).values().iterator());
+        }
+
+        /**
+         * @return the slots that meet every property condition
+         */
+        private RoaringBitmap matchingSlots()
+        {
+            RoaringBitmap slots = null;
+
+            for (final RoaringBitmap condition : slotConditions) slots = slots == null ? condition.clone() : RoaringBitmap.and(slots, condition);
+
+            if (minSize != Double.NEGATIVE_INFINITY || maxSize != Double.POSITIVE_INFINITY)
+            {
+                final RoaringBitmap sized = slotsBySize();
+                slots = slots == null ? sized : RoaringBitmap.and(slots, sized);
+            }
+            return slots;
+        }
+
+        /**
+         * ORs the size buckets that lie within the bounds, and checks the sizes of the slots in the buckets the bounds
+         * cut through one by one
+         * @return the slots within the size bounds
+         */
+        private RoaringBitmap slotsBySize()
+        {
+            if (minSize >= maxSize) return new RoaringBitmap();
+
+            final int low = minSize == Double.NEGATIVE_INFINITY ? Integer.MIN_VALUE : bucket(minSize);
+            final int high = maxSize == Double.POSITIVE_INFINITY ? Integer.MAX_VALUE : bucket(maxSize);
+            final var result = new RoaringBitmap();
+
+            for (final Map.Entry<Integer, RoaringBitmap> entry : sizeBuckets.subMap(low, true, high, true).entrySet())
+            {
+                if (entry.getKey() > low && entry.getKey() < high) result.or(entry.getValue()); //bucket fully inside
+                else entry.getValue().forEach((int slot) -> { if (slotSize[slot] >= minSize && slotSize[slot] < maxSize) result.add(slot); });
+            }
+            return result;
+        }
+
+        /**
+         * @param slots property slots
+         * @return the clients owning any of the slots
+         */
+        private RoaringBitmap clientsOf(final RoaringBitmap slots)
+        {
+            final var owners = new RoaringBitmap();
+            slots.forEach((int slot) -> owners.add(slotClient[slot]));
+            return owners;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a CSV registry dump row by row from a memory-mapped file and hands the rows to the same RowHandler as
+ * SheetStreamReader, so CSV and Excel exports go through the same column lookup and filtering.
+ *
+ * The file is mapped in windows of up to MAX_WINDOW bytes and scanned byte by byte. Only the columns the handler reads
+ * are turned into Strings; every other field is skipped without being copied. Quoted fields, doubled quotes inside them
+ * and line breaks inside quotes are supported, as are '\n' and '\r\n' line endings and a leading UTF-8 byte order mark.
+ * Empty fields are passed on as null, like empty cells in a sheet.
+ */
+public class CsvStreamReader
+{
+    private static final long MAX_WINDOW = 1L << 30; //bytes mapped at a time
+
+    private final SheetStreamReader.RowHandler handler;
+    private final byte delimiter;
+
+    private final List<String> headers = new ArrayList<>();
+    private boolean inHeader = true;
+    private String[] values = new String[0];
+    private boolean[] wanted; //columns the handler reads, null to read all of them
+
+    private byte[] field = new byte[256]; //bytes of the current field, only collected for wanted columns
+    private int fieldLength;
+    private boolean fieldStarted; //the current field has had any byte, even in a skipped column
+    private int column;
+
+    //quote state of the current field
+    private boolean quoted;
+    private boolean quoteSeen; //inside a quoted field, the previous byte was a quote
+
+    private CsvStreamReader(final SheetStreamReader.RowHandler handler, final byte delimiter)
+    {
+        this.handler = handler;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Streams a comma separated file into the handler
+     * @param inFile the CSV file, UTF-8 encoded, with a header row
+     * @param handler receiver of the header and the rows
+     * @throws IOException if the file can't be read
+     */
+    public static void read(final File inFile, final SheetStreamReader.RowHandler handler) throws IOException { read(inFile, ',', handler); }
+
+    /**
+     * Streams a delimited file into the handler
+     * @param inFile the file, UTF-8 encoded, with a header row
+     * @param delimiter field separator, e.g. ',' ';' or '\t'
+     * @param handler receiver of the header and the rows
+     * @throws IOException if the file can't be read
+     */
+    public static void read(final File inFile, final char delimiter, final SheetStreamReader.RowHandler handler) throws IOException
+    {
+        if (delimiter > 0x7F || delimiter == '"') throw new IllegalArgumentException("Unsupported delimiter " + delimiter);
+        new CsvStreamReader(handler, (byte) delimiter).scan(inFile);
+    }
+
+    private void scan(final File inFile) throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ))
+        {
+            final long length = channel.size();
+
+            for (long position = 0; position < length; position += MAX_WINDOW)
+            {
+                final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_WINDOW, length - position));
+
+                if (position == 0) skipByteOrderMark(window);
+                while (window.hasRemaining()) accept(window.get());
+            }
+            endRow(); //last line without a line break
+        }
+        handler.end();
+    }
+
+    private static void skipByteOrderMark(final MappedByteBuffer window)
+    {
+        if (window.remaining() >= 3 && window.get(0) == (byte) 0xEF && window.get(1) == (byte) 0xBB && window.get(2) == (byte) 0xBF) window.position(3);
+    }
+
+    /**
+     * Feeds one byte to the parser
+     */
+    private void accept(final byte b)
+    {
+        if (quoted)
+        {
+            if (b == '"')
+            {
+                if (quoteSeen) append(b); //doubled quote stands for one quote
+                quoteSeen = !quoteSeen;
+                return;
+            }
+            if (!quoteSeen)
+            {
+                append(b); //anything inside the quotes, including delimiters and line breaks
+                return;
+            }
+            quoted = false; //the quote before this byte closed the field
+            quoteSeen = false;
+        }
+
+        if (b == delimiter) endField();
+        else if (b == '\n') endRow();
+        else if (b == '"' && !fieldStarted)
+        {
+            quoted = true;
+            fieldStarted = true;
+        }
+        else if (b != '\r') append(b); //"\r\n" ends the row at '\n'
+    }
+
+    private void append(final byte b)
+    {
+        fieldStarted = true;
+        if (wanted != null && (column >= wanted.length || !wanted[column])) return; //skip the bytes of columns nobody reads
+
+        if (fieldLength == field.length) field = Arrays.copyOf(field, field.length * 2);
+        field[fieldLength++] = b;
+    }
+
+    private void endField()
+    {
+        if (inHeader) headers.add(new String(field, 0, fieldLength, StandardCharsets.UTF_8).trim());
+        else if (column < values.length && fieldLength > 0) values[column] = new String(field, 0, fieldLength, StandardCharsets.UTF_8);
+
+        column++;
+        fieldLength = 0;
+        fieldStarted = false;
+        quoted = false;
+        quoteSeen = false;
+    }
+
+    private void endRow()
+    {
+        if (column == 0 && !fieldStarted) return; //blank line
+        endField();
+
+        if (inHeader)
+        {
+            inHeader = false;
+            handler.header(Collections.unmodifiableList(headers));
+            values = new String[headers.size()];
+            wanted = wantedColumns(handler.columns(), headers.size());
+        }
+        else
+        {
+            handler.row(values);
+            Arrays.fill(values, null);
+        }
+        column = 0;
+    }
+
+    /**
+     * @param columns the columns the handler reads, or null if it reads all of them
+     * @param width number of header columns
+     * @return a flag per column, or null to read every column
+     */
+    private static boolean[] wantedColumns(final int[] columns, final int width)
+    {
+        if (columns == null) return null;
+
+        final boolean[] wanted = new boolean[width];
+        for (final int col : columns) if (col >= 0 && col < width) wanted[col] = true;
+        return wanted;
+    }
+}
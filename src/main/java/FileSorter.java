@@ -1,6 +1,9 @@
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.NumberToTextConverter;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
@@ -8,21 +11,153 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
-
-//TODO understand and use the Google libPhoneNumber library to validate phone numbers
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 
 public class FileSorter
 {
-    private final List<Property> allProperties = new ArrayList<>(); //all properties
+    private final PropertyTable allProperties = new PropertyTable(); //all properties, stored column by column
     private final List<Owner> allOwners = new ArrayList<>(); //owners without properties
     private final List<Owner> prospectiveClients = new ArrayList<>(); //owners with properties
 
+    private final PipelineMetrics metrics = new PipelineMetrics(); //stage timings, row counts and rejection reasons
+
+    private boolean identityResolution; //merge owners transitively by phone, email and name instead of the first match
+    private NameMatcher nameMatcher; //also merge owners whose names are spelling variants, null to match exact names only
+    private SpillingJoin outOfCore; //keeps the owners and properties on disk instead of in allOwners and allProperties, null to keep them on the heap
+    private OwnerIndex ownerIndex; //property counts of the owners in every community, null to classify by this run's properties only
+    private String community; //name the clients are counted under in the ownerIndex
+
+    private static final int DECODING_VERSION = 3; //bump whenever rows are decoded differently, so old snapshots are not reused
+    private static final int ROW_WINDOW = 100; //rows of each sheet kept in memory while writing an Excel file
+    private static final PhoneNormalizer PHONES = new PhoneNormalizer("AE", 1 << 18); //shared by every FileSorter, numbers repeat across communities
+
+    //decoding streamed rows in parallel
+    private static final ExecutorService DECODERS = RowPipeline.newWorkerPool(Runtime.getRuntime().availableProcessors()); //shared by every FileSorter
+    private static final int DECODE_BATCH = 512; //rows handed to a worker at once
+    private static final int DECODE_BATCHES_IN_FLIGHT = 4 * Runtime.getRuntime().availableProcessors(); //per sheet, bounds the rows held in memory
+    private volatile boolean pipelinedDecoding = true; //decode streamed rows on the DECODERS while the sheet is parsed
+
     //constraints
-    private static final List<String> REJECTED_OWNERS = new ArrayList<>(Arrays.asList("bank", "properties", "limited", "investment", "estate", "estates",
-            "engineering", "development", "llc", "l.l.c", "(l.l.c)", "ltd.", "ltd",  "finance", "commercial", "co", "h.h.",
-            "sheikh", "prince", "princess", "tamweel", "united", "capital", "company", "aal", "h.h.al", "h.e", "p.j.s.c")); //list of owner keywords not allowed in the prospectiveClients list
+    private volatile RejectedOwnerMatcher rejectedOwners = RejectedOwnerMatcher.defaults(); //owner keywords not allowed in the prospectiveClients list
+
+    //input columns
+    private volatile RowSchema.Aliases columnAliases = RowSchema.Aliases.defaults(); //header names of the registry columns
+
+    private final RowSchema<Property> propertySchema = new RowSchema<Property>("property") //P-NUMBER first, see IngestSnapshot.fingerprint
+            .required("P-NUMBER", (prop, value) -> prop.setpNum(parsePNum(value)))
+            .optional("AREA", Property::setLocation)
+            .optional("PROJECT", Property::setName)
+            .optional("ROOMS DESCRIPTION", Property::setBedrooms)
+            .optional("ACTUAL AREA", this::addArea);
+
+    private final RowSchema<Owner> ownerSchema = new RowSchema<Owner>("owner") //P-NUMBER first, see IngestSnapshot.fingerprint
+            .required("P-NUMBER", (owner, value) -> owner.setpNum(parsePNum(value)))
+            .required("NAME", (owner, value) -> owner.setName(FilterUtils.reformatName(value)))
+            .optional("GENDER", (owner, value) -> owner.setSex(value.intern())) //only a couple of distinct values
+            .optional("EMAIL", this::addEmail)
+            .optional("PHONE", this::addPhoneNum)
+            .optional("MOBILE", this::addPhoneNum)
+            .optional("SECONDARY MOBILE", this::addPhoneNum);
+
+    /**
+     * Chooses how owners that are the same person are merged when the prospectiveClients list is built. When enabled,
+     * owners sharing a phone number, an email or a name are merged transitively through the IdentityResolver and the
+     * list is rebuilt from scratch on every join
+     * @param identityResolution true to use the IdentityResolver
+     * @throws IllegalStateException if it is turned off while the join runs out of core, which always resolves identities
+     */
+    public void setIdentityResolution(final boolean identityResolution)
+    {
+        if (!identityResolution && outOfCore != null) throw new IllegalStateException("Out-of-core joins resolve identities, call setOutOfCore(null, 0) first");
+        this.identityResolution = identityResolution;
+    }
+
+    /**
+     * Also merges owners whose names are spelling variants of each other, like "Mohammed Ali" and "Ali Mohamed". The
+     * names are compared through the IdentityResolver, which is used from then on regardless of setIdentityResolution
+     * @param threshold name similarity from which two owners are the same person, between 0 and 1; 0.9 is a good start.
+     *                  0 turns fuzzy matching off again
+     * @throws IllegalStateException if the join runs out of core, which can't compare every name with every other
+     */
+    public void setFuzzyNameThreshold(final double threshold)
+    {
+        if (threshold != 0 && outOfCore != null) throw new IllegalStateException("Fuzzy name matching can't run out of core, call setOutOfCore(null, 0) first");
+        this.nameMatcher = threshold == 0 ? null : new NameMatcher(threshold);
+    }
+
+    /**
+     * Keeps the owners and properties read from then on in spill files instead of on the heap, for inputs too large to
+     * join in memory, such as several emirates' registries at once. The join runs partition by partition through a
+     * SpillingJoin and gives the same prospectiveClients as the in-memory join with identity resolution, which is
+     * therefore required: call setIdentityResolution(true) first. Fuzzy name matching needs every name at once and
+     * can't be combined with it. Only the prospectiveClients are kept on the heap
+     * @param spillDir directory for the spill files, or null to go back to joining in memory and delete the spill files
+     * @param memoryBudget heap bytes a partition may take while it is joined
+     * @throws IOException if the spill directory can't be created, or the previous spill files can't be deleted
+     * @throws IllegalStateException if identity resolution is off or a fuzzy name threshold is set
+     */
+    public void setOutOfCore(final File spillDir, final long memoryBudget) throws IOException
+    {
+        if (spillDir != null && !identityResolution) throw new IllegalStateException("Out-of-core joins resolve identities, call setIdentityResolution(true) first");
+        if (spillDir != null && nameMatcher != null) throw new IllegalStateException("Fuzzy name matching can't run out of core, call setFuzzyNameThreshold(0) first");
+
+        if (outOfCore != null) outOfCore.close();
+        outOfCore = spillDir == null ? null : new SpillingJoin(spillDir.toPath(), memoryBudget);
+    }
+
+    /**
+     * Counts the prospective clients in a persistent index shared by every community, and classifies them as investors
+     * or homeowners by the properties they own in all the communities indexed so far instead of in this one only. Every
+     * join replaces the community's counts in the index with those of its clients
+     * @param ownerIndex the index, or null to classify by the properties of this run only
+     * @param community name the clients are counted under, e.g. the input file name; running the same community again
+     *                  replaces its counts instead of adding to them
+     */
+    public void setOwnerIndex(final OwnerIndex ownerIndex, final String community)
+    {
+        this.ownerIndex = ownerIndex;
+        this.community = community;
+    }
+
+    /**
+     * Chooses whether streamed rows are normalized and qualified on the thread that parses the sheet, or handed in
+     * batches to a pool of worker threads as the sheet is parsed. The rows end up in the same order either way.
+     * Incremental runs always decode on the parsing thread, as every row is checked against the snapshot in order
+     * @param pipelinedDecoding true to decode on the worker pool, which is the default
+     */
+    public void setPipelinedDecoding(final boolean pipelinedDecoding) { this.pipelinedDecoding = pipelinedDecoding; }
+
+    /**
+     * Replaces the keywords that keep an owner out of the prospectiveClients list, for example with a different
+     * market's list. Owners read after the call are checked against the new keywords
+     * @param rejectedOwners the compiled keyword rules
+     */
+    public void setRejectedOwners(final RejectedOwnerMatcher rejectedOwners) { this.rejectedOwners = rejectedOwners; }
+
+    /**
+     * Replaces the header names the input columns are looked up by, for example for a registry export that names its
+     * columns differently. Sheets read after the call use the new names
+     * @param columnAliases the header names of each column
+     */
+    public void setColumnAliases(final RowSchema.Aliases columnAliases) { this.columnAliases = columnAliases; }
+
+    /**
+     * @return the metrics of everything this FileSorter has read, joined and written so far
+     */
+    public PipelineMetrics getMetrics() { return metrics; }
+
+    /**
+     * Writes the metrics as a JSON run report and commits their totals as JFR events
+     * @param reportFile the JSON file
+     */
+    public void writeReport(final File reportFile)
+    {
+        metrics.publish();
+
+        try { metrics.writeReport(reportFile.toPath()); }
+        catch (IOException e) { e.printStackTrace(); }
+    }
 
     /**
      * Extracts all the information from the input Excel file, transforms them into objects, and filters them.
@@ -32,19 +167,240 @@ public class FileSorter
      */
     public void readExcel(final File inFile, final int index, final String type)
     {
-        try (final FileInputStream input = new FileInputStream(inFile))
+        try
         {
-            final var workbook = new XSSFWorkbook(input); //get workbook from the FileInputStream
-            final var sheet = workbook.getSheetAt(index);
+            try (final var span = metrics.start(PipelineMetrics.Stage.PARSE); //includes building the workbook, most of the parse
+                 final FileInputStream input = new FileInputStream(inFile))
+            {
+                final var workbook = new XSSFWorkbook(input); //get workbook from the FileInputStream
+                final var sheet = workbook.getSheetAt(index);
 
-            if (type.equalsIgnoreCase("o")) allOwners.addAll(rowToOwner(sheet));
-            else if (type.equalsIgnoreCase("p")) allProperties.addAll(rowToProperty(sheet));
+                if (type.equalsIgnoreCase("o"))
+                {
+                    final List<Owner> owners = rowToOwner(sheet);
+                    owners.forEach(ownerSink());
+                    span.rows(sheet.getLastRowNum(), owners.size());
+                }
+                else if (type.equalsIgnoreCase("p"))
+                {
+                    final List<Property> properties = rowToProperty(sheet);
+                    properties.forEach(propertySink());
+                    span.rows(sheet.getLastRowNum(), properties.size());
+                }
+            }
+
+            if (readyToJoin()) setProperty();
+        }
+        catch (IOException | IllegalArgumentException ioe) //unreadable file, missing required column or malformed number
+        {
+            metrics.error(PipelineMetrics.Stage.PARSE);
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Same as readExcel, but streams the sheet row by row through the POI event API and maps every row as soon as it
+     * is parsed, so the workbook is never loaded into memory as a whole
+     * @param inFile the Excel file
+     * @param index index of the relevant sheet
+     * @param type an 'o' or 'p' which indicates whether it's a file of owners or properties
+     */
+    public void readExcelStreaming(final File inFile, final int index, final String type)
+    {
+        try
+        {
+            if (type.equalsIgnoreCase("o")) SheetStreamReader.read(inFile, index, new OwnerRowHandler(ownerSink(), null));
+            else if (type.equalsIgnoreCase("p")) SheetStreamReader.read(inFile, index, new PropertyRowHandler(propertySink(), null));
 
-            if (!allOwners.isEmpty() && !allProperties.isEmpty()) setProperty();
+            if (readyToJoin()) setProperty();
+        }
+        catch (IOException ioe)
+        {
+            metrics.error(PipelineMetrics.Stage.PARSE);
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Same as readExcelStreaming for registry dumps that come as CSV files with the same header names. The file is
+     * memory-mapped and only the columns that are read are decoded into Strings
+     * @param inFile the CSV file
+     * @param type an 'o' or 'p' which indicates whether it's a file of owners or properties
+     */
+    public void readCsv(final File inFile, final String type)
+    {
+        try
+        {
+            if (type.equalsIgnoreCase("o")) CsvStreamReader.read(inFile, new OwnerRowHandler(ownerSink(), null));
+            else if (type.equalsIgnoreCase("p")) CsvStreamReader.read(inFile, new PropertyRowHandler(propertySink(), null));
+
+            if (readyToJoin()) setProperty();
+        }
+        catch (IOException | IllegalArgumentException ioe) //unreadable file, missing required column or malformed number
+        {
+            metrics.error(PipelineMetrics.Stage.PARSE);
+            ioe.printStackTrace();
         }
+    }
+
+    /**
+     * Reads several sheets of the same input file in one go. The file is opened once, the property and owner sheets are
+     * parsed at the same time on separate threads, and the owners are matched with their properties once every sheet
+     * has been loaded
+     * @param inFile the Excel file
+     * @param types one entry per sheet, in sheet order: 'o' for owners, 'p' for properties, anything else to skip it
+     */
+    public void readWorkbook(final File inFile, final String... types)
+    {
+        try { loadWorkbook(inFile, null, types); }
         catch (IOException ioe) { ioe.printStackTrace(); }
     }
 
+    /**
+     * Same as readWorkbook, for an export that mostly repeats the previous one. Rows that are identical to a row of the
+     * previous run are restored from the snapshot it left behind instead of being normalized and qualified again, and
+     * the snapshot is then replaced with one of the current export
+     * @param inFile the Excel file
+     * @param snapshotFile snapshot of the previous run; created if it doesn't exist yet
+     * @param types one entry per sheet, in sheet order: 'o' for owners, 'p' for properties, anything else to skip it
+     * @return the pNums that were added, removed or changed since the previous run, or null if the run failed
+     */
+    public IngestSnapshot.Diff readWorkbookIncremental(final File inFile, final Path snapshotFile, final String... types)
+    {
+        try (final var run = new IngestSnapshot.Run(snapshotFile, snapshotVersion()))
+        {
+            loadWorkbook(inFile, run, types);
+            return run.commit();
+        }
+        catch (IOException ioe) { ioe.printStackTrace(); } //parse failures are counted by loadWorkbook
+        return null;
+    }
+
+    /**
+     * @return identifies the decoding and qualification rules, so a snapshot is only reused under the same rules
+     */
+    private long snapshotVersion() { return ((long) DECODING_VERSION << 32) ^ rejectedOwners.getRules().hashCode(); }
+
+    /**
+     * Streams the requested sheets in parallel, appends them in sheet order and joins them once
+     * @param inFile the Excel file
+     * @param run the incremental run, or null to decode every row
+     * @param types one entry per sheet, in sheet order: 'o' for owners, 'p' for properties, anything else to skip it
+     */
+    void loadWorkbook(final File inFile, final IngestSnapshot.Run run, final String... types) throws IOException
+    {
+        final Map<Integer, SheetStreamReader.RowHandler> handlers = new HashMap<>();
+        final SpillingJoin spill = outOfCore; //spilled sheets are appended in sheet order as their sinks are created
+        final List<List<Owner>> ownerSheets = new ArrayList<>();
+        final List<List<Property>> propertySheets = new ArrayList<>();
+
+        //give every sheet its own output list so the threads never share one
+        for (int i = 0; i < types.length; i++)
+        {
+            if (types[i].equalsIgnoreCase("o"))
+            {
+                final List<Owner> owners = new ArrayList<>(); //stays empty when spilled
+                ownerSheets.add(owners);
+                handlers.put(i, new OwnerRowHandler(spill == null ? owners::add : spill.newOwners(), run));
+            }
+            else if (types[i].equalsIgnoreCase("p"))
+            {
+                final List<Property> properties = new PropertyTable(); //stays empty when spilled
+                propertySheets.add(properties);
+                handlers.put(i, new PropertyRowHandler(spill == null ? properties::add : spill.newProperties(), run));
+            }
+        }
+
+        try { SheetStreamReader.read(inFile, handlers); }
+        catch (IOException ioe)
+        {
+            metrics.error(PipelineMetrics.Stage.PARSE);
+            throw ioe;
+        }
+
+        ownerSheets.forEach(allOwners::addAll); //keep the sheet order
+        propertySheets.forEach(allProperties::addAll);
+
+        if (readyToJoin()) setProperty();
+    }
+
+    /**
+     * Reads the inputs in several worker processes, each decoding the rows of the pNums that hash to it, and joins the
+     * owners once the workers are done. The prospective clients are the same as when the inputs are read one after the
+     * other in this process
+     * @param shards number of worker processes, e.g. one per core
+     * @param workDir directory for the shard files the workers leave behind, deleted once they are merged
+     * @param inputs the Excel and CSV files, in the order they would be read
+     */
+    public void readSharded(final int shards, final File workDir, final ShardedRun.Input... inputs)
+    {
+        try { loadSharded(new ShardedRun(shards, workDir.toPath()), List.of(inputs)); }
+        catch (IOException ioe) { ioe.printStackTrace(); }
+    }
+
+    /**
+     * Same as readSharded, but lets the caller configure the workers and handle a failed run
+     * @param run the workers
+     * @param inputs the Excel and CSV files, in the order they would be read
+     * @throws IOException if a worker fails or its shard file can't be read
+     */
+    void loadSharded(final ShardedRun run, final List<ShardedRun.Input> inputs) throws IOException
+    {
+        try (final var span = metrics.start(PipelineMetrics.Stage.PARSE))
+        {
+            final int owners = ownerCount();
+            final long rows = run.run(this, inputs, ownerSink(), propertySink());
+            span.rows(rows, ownerCount() - owners);
+        }
+        catch (IOException ioe)
+        {
+            metrics.error(PipelineMetrics.Stage.PARSE);
+            throw ioe;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the shard workers");
+        }
+
+        if (readyToJoin()) setProperty();
+    }
+
+    /**
+     * Writes the keyword rules and column aliases a ShardedRun worker is configured with
+     * @param rules file for the rejected owner rules
+     * @param aliases file for the column aliases
+     * @throws IOException if a file can't be written
+     */
+    void saveSettings(final Path rules, final Path aliases) throws IOException
+    {
+        Files.write(rules, rejectedOwners.getRules());
+        columnAliases.save(aliases);
+    }
+
+    /**
+     * @param type 'o' for owners, 'p' for properties
+     * @param headers cell text of the sheet's header row
+     * @return the columns the row handlers read from the sheet, P-NUMBER first and -1 where a column is missing
+     * @throws IllegalArgumentException if a required column isn't in the header row
+     */
+    int[] columnsRead(final String type, final List<String> headers)
+    {
+        return (type.equalsIgnoreCase("o") ? ownerSchema : propertySchema).compile(headers, columnAliases).columns();
+    }
+
+    /**
+     * @param owners receives the owners of the rows handed to the handler
+     * @return a handler that decodes and qualifies owner rows like readExcelStreaming, for a ShardedRun worker
+     */
+    SheetStreamReader.RowHandler ownerRowHandler(final Consumer<Owner> owners) { return new OwnerRowHandler(owners, null); }
+
+    /**
+     * @param properties receives the properties of the rows handed to the handler
+     * @return a handler that decodes property rows like readExcelStreaming, for a ShardedRun worker
+     */
+    SheetStreamReader.RowHandler propertyRowHandler(final Consumer<Property> properties) { return new PropertyRowHandler(properties, null); }
+
     /**
      * Transforms a row into a Property Arraylist from an Excel sheet
      * @param propSheet current Excel sheet
@@ -52,8 +408,9 @@ public class FileSorter
      */
     private List<Property> rowToProperty(final XSSFSheet propSheet)
     {
-        final List<Property> propertyList = new ArrayList<>(); //return variable
-        final var headerIndices = new HashMap<>(cellSeeker(propSheet, "P-NUMBER", "AREA", "PROJECT", "ROOMS DESCRIPTION", "ACTUAL AREA"));
+        final List<Property> propertyList = new PropertyTable(); //return variable
+        final var schema = propertySchema.compile(headerRow(propSheet), columnAliases);
+        final var values = new String[propSheet.getRow(0).getLastCellNum()];
 
         //traverse every Row with enhance for loop
         for (final Row row : propSheet)
@@ -61,21 +418,7 @@ public class FileSorter
             if (row.getRowNum() == 0) continue;
 
             final var prop = new Property(); //create new com.dreamcatcherbroker.leadgenerator.Property instance
-
-            //traverse every cell in the row
-            for (final Cell cell : row)
-            {
-                //identify the column and add to the object instance accordingly
-                if (cell.getColumnIndex() == headerIndices.get("P-NUMBER"))
-                {
-                    if (cell.getCellType() == CellType.NUMERIC) prop.setpNum((int) cell.getNumericCellValue());
-                    else if (cell.getCellType() == CellType.STRING) prop.setpNum(Integer.parseInt(cell.getStringCellValue()));
-                }
-                else if (cell.getColumnIndex() == headerIndices.get("AREA") && headerIndices.get("AREA") != -1) prop.setLocation(cell.getStringCellValue());
-                else if (cell.getColumnIndex() == headerIndices.get("PROJECT") && headerIndices.get("PROJECT") != -1) prop.setName(cell.getStringCellValue());
-                else if (cell.getColumnIndex() == headerIndices.get("ROOMS DESCRIPTION") && headerIndices.get("ROOMS DESCRIPTION") != 1) prop.setBedrooms(cell.getStringCellValue());
-                else if (cell.getColumnIndex() == headerIndices.get("ACTUAL AREA") && headerIndices.get("ACTUAL AREA") != -1) prop.setSize(cell.getNumericCellValue());
-            }
+            schema.apply(prop, rowValues(row, schema, values));
             propertyList.add(prop); //add the property to the output list
         }
         return Collections.unmodifiableList(propertyList);
@@ -90,7 +433,8 @@ public class FileSorter
     private List<Owner> rowToOwner(final XSSFSheet ownSheet)
     {
         final List<Owner> ownersList = new ArrayList<>(); //return variable
-        final var headerIndices = new HashMap<>(cellSeeker(ownSheet, "P-NUMBER", "EMAIL", "NAME", "GENDER", "PHONE", "MOBILE", "SECONDARY MOBILE"));
+        final var schema = ownerSchema.compile(headerRow(ownSheet), columnAliases);
+        final var values = new String[ownSheet.getRow(0).getLastCellNum()];
 
         //traverse every Row with enhance for loop
         for (final Row row : ownSheet)
@@ -98,166 +442,607 @@ public class FileSorter
             if (row.getRowNum() == 0) continue;
 
             final var owner = new Owner(); //create new com.dreamcatcherbroker.leadgenerator.Owner instance
-
-            //traverse every cell in the row
-            for (final Cell cell : row)
-            {
-                //identify the column and add to the object instance accordingly
-                if (cell.getColumnIndex() == headerIndices.get("P-NUMBER"))
-                {
-                    if (cell.getCellType() == CellType.NUMERIC) owner.setpNum((int) cell.getNumericCellValue());
-                    else if (cell.getCellType() == CellType.STRING) owner.setpNum(Integer.parseInt(cell.getStringCellValue()));
-                }
-                else if (cell.getColumnIndex() == headerIndices.get("NAME") && headerIndices.get("NAME") != -1) owner.setName(FilterUtils.reformatName(cell.getStringCellValue()));
-                else if (cell.getColumnIndex() == headerIndices.get("GENDER") && headerIndices.get("GENDER") != -1) owner.setSex(cell.getStringCellValue());
-                else if (cell.getColumnIndex() == headerIndices.get("EMAIL") && headerIndices.get("EMAIL") != -1) setOwnerEmail(owner, cell);
-                else if ((cell.getColumnIndex() == headerIndices.get("PHONE") && headerIndices.get("PHONE") != -1) ||
-                        (cell.getColumnIndex() == headerIndices.get("MOBILE") && headerIndices.get("MOBILE") != -1) ||
-                        (cell.getColumnIndex() == headerIndices.get("SECONDARY MOBILE") && headerIndices.get("SECONDARY MOBILE") != -1)) setPhoneNums(owner, cell);
-            }
-            if (owner.getName() != null && isQualified(owner)) ownersList.add(owner); //add the owner to the output list if they are qualified
+            schema.apply(owner, rowValues(row, schema, values));
+            if (isQualified(owner)) ownersList.add(owner); //add the owner to the output list if they are qualified
         }
         return Collections.unmodifiableList(ownersList);
     }
 
     /**
-     * Attemps to put all arguments in a hashmap with its associated column index in the excel file sheet
-     * @param sheet the sheet in question
-     * @param headers the input string headers
-     * @return a hashmap of headers and their indices
+     * Reads the cells of a row that the schema uses into a reusable buffer
+     * @param row current row
+     * @param schema the schema compiled for the row's sheet
+     * @param values buffer indexed by column, as wide as the header row
+     * @return the buffer, null where a cell is empty or not read
+     */
+    private static String[] rowValues(final Row row, final RowSchema<?>.Compiled schema, final String[] values)
+    {
+        Arrays.fill(values, null);
+
+        for (final Cell cell : row)
+        {
+            final int col = cell.getColumnIndex();
+            if (schema.reads(col)) values[col] = cellText(cell); //one array lookup per cell
+        }
+        return values;
+    }
+
+    /**
+     * @param cell a cell
+     * @return the cell's text, numbers as their raw value like the streaming readers return them, null if it is blank
+     */
+    private static String cellText(final Cell cell)
+    {
+        final CellType type = cell.getCellType() == CellType.FORMULA ? cell.getCachedFormulaResultType() : cell.getCellType();
+
+        switch (type)
+        {
+            case STRING: return cell.getStringCellValue();
+            case NUMERIC: return NumberToTextConverter.toText(cell.getNumericCellValue());
+            case BOOLEAN: return cell.getBooleanCellValue() ? "TRUE" : "FALSE";
+            default: return null; //blank or error
+        }
+    }
+
+    /**
+     * @param sheet an Excel sheet
+     * @return the text of the sheet's header cells, indexed by column
+     */
+    private static List<String> headerRow(final XSSFSheet sheet)
+    {
+        final var headerRow = new ArrayList<String>();
+
+        for (final Cell cell : sheet.getRow(0))
+        {
+            while (headerRow.size() <= cell.getColumnIndex()) headerRow.add(null); //pad missing header cells
+            headerRow.set(cell.getColumnIndex(), cellText(cell));
+        }
+        return headerRow;
+    }
+
+    /**
+     * Time spent on, bytes allocated by and rows passed through the NORMALIZE and QUALIFY stages, by one decoding thread
      */
-    private Map<String, Integer> cellSeeker(final XSSFSheet sheet, final String... headers)
+    private static class DecodeStats
     {
-        final var indices = new HashMap<String, Integer>();
+        long normalizeNanos, qualifyNanos, normalizeBytes, qualifyBytes, normalized, qualifyIn, qualifyOut;
+
+        void add(final DecodeStats other)
+        {
+            normalizeNanos += other.normalizeNanos;
+            qualifyNanos += other.qualifyNanos;
+            normalizeBytes += other.normalizeBytes;
+            qualifyBytes += other.qualifyBytes;
+            normalized += other.normalized;
+            qualifyIn += other.qualifyIn;
+            qualifyOut += other.qualifyOut;
+        }
+    }
+
+    /**
+     * Rows decoded by a worker thread, ready to be appended in order
+     * @param <T> Property or Owner
+     */
+    private static class DecodedBatch<T>
+    {
+        final int rows; //rows read, including the filtered out ones
+        final List<T> decoded = new ArrayList<>();
+        final DecodeStats stats = new DecodeStats();
+
+        DecodedBatch(final int rows) { this.rows = rows; }
+    }
+
+    /**
+     * Maps streamed rows into objects as soon as they are parsed. In an incremental run every row is looked up in the
+     * previous snapshot first and only decoded if it is new or changed. Otherwise the rows are decoded in batches on the
+     * DECODERS through a RowPipeline, unless pipelined decoding is turned off
+     * @param <T> Property or Owner
+     */
+    private abstract class DecodingRowHandler<T> implements SheetStreamReader.RowHandler
+    {
+        private final Consumer<T> out;
+        private final IngestSnapshot.Run run; //null outside incremental runs
+        private final byte kind; //IngestSnapshot.PROPERTY or IngestSnapshot.OWNER
+        private final RowSchema<T> schema;
+        RowSchema<T>.Compiled compiled; //the schema bound to the sheet's columns; set by header()
+        private int[] columns; //columns read from the sheet, starting with P-NUMBER; set by header()
+        private RowPipeline<DecodedBatch<T>> pipeline; //null when rows are decoded on the parsing thread; set by header()
+
+        //metrics of this sheet, added to the shared metrics once the sheet ends
+        private PipelineMetrics.Span span;
+        private long rowsIn, rowsOut;
+        private final DecodeStats stats = new DecodeStats();
+
+        DecodingRowHandler(final Consumer<T> out, final IngestSnapshot.Run run, final byte kind, final RowSchema<T> schema)
+        {
+            this.out = out;
+            this.run = run;
+            this.kind = kind;
+            this.schema = schema;
+        }
+
+        /**
+         * Called from several worker threads at once when decoding is pipelined
+         * @param values cells of the row
+         * @param stats receives the time, allocation and rows of the NORMALIZE and QUALIFY stages
+         * @return the decoded object, or null if the row is filtered out
+         */
+        abstract T decode(String[] values, DecodeStats stats);
+
+        /**
+         * @param entry the snapshot record of an identical row
+         * @return the object the identical row produced, or null if it was filtered out
+         */
+        abstract T restore(IngestSnapshot.Entry entry);
+
+        /**
+         * Records a newly decoded row in the next snapshot
+         */
+        abstract void record(IngestSnapshot.Run run, long fingerprint, int pNum, T decoded) throws IOException;
+
+        @Override
+        public void header(final List<String> headers)
+        {
+            compiled = schema.compile(headers, columnAliases);
+            columns = compiled.columns();
+            if (run == null && pipelinedDecoding) pipeline = new RowPipeline<>(DECODERS, DECODE_BATCH, DECODE_BATCHES_IN_FLIGHT, this::decodeBatch, this::collect);
+            span = metrics.start(PipelineMetrics.Stage.PARSE); //ends with the sheet, in end()
+        }
+
+        @Override
+        public int[] columns() { return columns; }
+
+        @Override
+        public void end()
+        {
+            if (span == null) return; //empty sheet
+            if (pipeline != null) pipeline.finish();
+
+            span.rows(rowsIn, rowsOut).close();
+            metrics.time(PipelineMetrics.Stage.NORMALIZE, stats.normalizeNanos);
+            metrics.allocate(PipelineMetrics.Stage.NORMALIZE, stats.normalizeBytes);
+            metrics.rows(PipelineMetrics.Stage.NORMALIZE, stats.normalized, stats.normalized);
+            metrics.time(PipelineMetrics.Stage.QUALIFY, stats.qualifyNanos);
+            metrics.allocate(PipelineMetrics.Stage.QUALIFY, stats.qualifyBytes);
+            metrics.rows(PipelineMetrics.Stage.QUALIFY, stats.qualifyIn, stats.qualifyOut);
+        }
 
-        for (final String keyword : headers)
+        @Override
+        public void row(final String[] values)
         {
-            boolean found = false;
-            for (final Cell cell : sheet.getRow(0))
+            if (pipeline != null)
+            {
+                pipeline.add(values);
+                return;
+            }
+
+            final T decoded;
+
+            if (run == null) decoded = decode(values, stats);
+            else
             {
-                if (keyword.equalsIgnoreCase(cell.getStringCellValue()))
+                final long fingerprint = IngestSnapshot.fingerprint(kind, values, columns);
+                final int pNum = has(values, columns[0]) ? parsePNum(values[columns[0]]) : 0;
+                final IngestSnapshot.Entry entry = run.lookup(fingerprint, pNum);
+
+                decoded = entry == null ? decode(values, stats) : restore(entry);
+
+                try
                 {
-                    found = true;
-                    indices.put(keyword, cell.getColumnIndex());
+                    if (entry == null) record(run, fingerprint, pNum, decoded);
+                    else run.record(entry);
                 }
+                catch (IOException ioe) { throw new UncheckedIOException(ioe); }
+            }
+
+            rowsIn++;
+            if (decoded != null)
+            {
+                rowsOut++;
+                out.accept(decoded); //add the object to the output
             }
-            if (!found) indices.put(keyword, -1);
         }
-        return Collections.unmodifiableMap(indices);
+
+        /**
+         * Decodes a batch of rows on a worker thread
+         */
+        private DecodedBatch<T> decodeBatch(final String[][] rows)
+        {
+            final var batch = new DecodedBatch<T>(rows.length);
+
+            for (final String[] values : rows)
+            {
+                final T decoded = decode(values, batch.stats);
+                if (decoded != null) batch.decoded.add(decoded);
+            }
+            return batch;
+        }
+
+        /**
+         * Appends a decoded batch to the output, on the parsing thread and in row order
+         */
+        private void collect(final DecodedBatch<T> batch)
+        {
+            rowsIn += batch.rows;
+            rowsOut += batch.decoded.size();
+            stats.add(batch.stats);
+            batch.decoded.forEach(out);
+        }
     }
 
     /**
-     * Invoked when creating the owner object from the input sheet, this method searches the input cell for a valid
-     * phone number, calls the reformat method to make sure the numbers are proper, then adds the number to the owner
-     * object if it is unique and valid
-     * @param owner current owner
-     * @param cell current cell
+     * Maps streamed property rows straight into Property objects, using the same schema as rowToProperty
      */
-    private void setPhoneNums(final Owner owner, final Cell cell)
+    private class PropertyRowHandler extends DecodingRowHandler<Property>
     {
-        //the cell is not empty and the number is longer than 6 digits
-        if (!cell.getStringCellValue().equals("") && cell.getStringCellValue().length() > 6)
+        PropertyRowHandler(final Consumer<Property> propertyList, final IngestSnapshot.Run run) { super(propertyList, run, IngestSnapshot.PROPERTY, propertySchema); }
+
+        @Override
+        Property decode(final String[] values, final DecodeStats stats)
         {
-            final String num = FilterUtils.reformatNumber(cell.getStringCellValue()); //format the number correctly
+            final long start = System.nanoTime();
+            final long startBytes = PipelineMetrics.allocatedBytes();
+            final var prop = new Property();
+
+            compiled.apply(prop, values);
 
-            if (FilterUtils.isValidNumber(num) && !owner.getPhoneNums().contains(num)) owner.addPhoneNums(num);
+            stats.normalizeNanos += System.nanoTime() - start;
+            stats.normalizeBytes += PipelineMetrics.allocatedBytes() - startBytes;
+            stats.normalized++;
+            return prop;
         }
+
+        @Override
+        Property restore(final IngestSnapshot.Entry entry) { return entry.toProperty(); }
+
+        @Override
+        void record(final IngestSnapshot.Run run, final long fingerprint, final int pNum, final Property decoded) throws IOException { run.record(fingerprint, decoded); }
     }
 
     /**
-     * Invoked when creating the owner object from the input sheet, this method searches the input cell for a valid
-     * email then adds the email to the owner object
+     * Maps streamed owner rows straight into Owner objects and filters them, using the same schema and rules as
+     * rowToOwner
+     */
+    private class OwnerRowHandler extends DecodingRowHandler<Owner>
+    {
+        OwnerRowHandler(final Consumer<Owner> ownersList, final IngestSnapshot.Run run) { super(ownersList, run, IngestSnapshot.OWNER, ownerSchema); }
+
+        @Override
+        Owner decode(final String[] values, final DecodeStats stats)
+        {
+            final long start = System.nanoTime();
+            final long startBytes = PipelineMetrics.allocatedBytes();
+            final var owner = new Owner();
+
+            compiled.apply(owner, values);
+
+            final long decoded = System.nanoTime();
+            final long decodedBytes = PipelineMetrics.allocatedBytes();
+            final boolean qualified = isQualified(owner);
+
+            stats.normalizeNanos += decoded - start;
+            stats.qualifyNanos += System.nanoTime() - decoded;
+            stats.normalizeBytes += decodedBytes - startBytes;
+            stats.qualifyBytes += PipelineMetrics.allocatedBytes() - decodedBytes;
+            stats.normalized++;
+            stats.qualifyIn++;
+            if (qualified) stats.qualifyOut++;
+
+            return qualified ? owner : null; //only qualified owners make it to the output list
+        }
+
+        @Override
+        Owner restore(final IngestSnapshot.Entry entry) { return entry.isRejected() ? null : entry.toOwner(); }
+
+        @Override
+        void record(final IngestSnapshot.Run run, final long fingerprint, final int pNum, final Owner decoded) throws IOException { run.record(fingerprint, pNum, decoded); }
+    }
+
+    /**
+     * @param values cells of a streamed row
+     * @param col column index, -1 if the header was not found
+     * @return true if the column exists and the row has a value in it
+     */
+    private static boolean has(final String[] values, final int col) { return col != -1 && col < values.length && values[col] != null; }
+
+    /**
+     * Reads a property number that may have been stored either as text or as a number
+     * @param value cell text
+     * @return the property number
+     */
+    static int parsePNum(final String value)
+    {
+        if (value.indexOf('.') != -1 || value.indexOf('E') != -1) return (int) Double.parseDouble(value); //numeric cell
+        return Integer.parseInt(value);
+    }
+
+    /**
+     * Setter of the actual area column: sets the size in the cell on the property, or counts it as an invalid area and
+     * leaves the size missing
+     * @param prop current property
+     * @param value current cell text
+     */
+    private void addArea(final Property prop, final String value)
+    {
+        if (value.isBlank()) return; //missing, not invalid
+
+        final double area = parseArea(value);
+        if (Double.isNaN(area)) metrics.reject(PipelineMetrics.Rejection.INVALID_AREA);
+        else prop.setSize(area);
+    }
+
+    /**
+     * @param value cell text of an area, e.g. "1200", "1,200.5" or "1 200"
+     * @return the area without its grouping separators, or NaN if the text isn't a finite number
+     */
+    static double parseArea(final String value)
+    {
+        final var digits = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+            if (c != ',' && c != ' ' && c != '\u00A0') digits.append(c); //grouping separators
+        }
+
+        try
+        {
+            final double area = Double.parseDouble(digits.toString());
+            return Double.isFinite(area) ? area : Double.NaN;
+        }
+        catch (NumberFormatException e) { return Double.NaN; }
+    }
+
+    /**
+     * Setter of the phone columns: adds the number in the cell to the owner, or counts it as an invalid phone number
+     * @param owner current owner
+     * @param value current cell text
+     */
+    private void addPhoneNum(final Owner owner, final String value)
+    {
+        if (!setPhoneNums(owner, value)) metrics.reject(PipelineMetrics.Rejection.INVALID_PHONE);
+    }
+
+    /**
+     * Adds the phone number in the given cell text to the owner if it is unique and valid
      * @param owner current owner
-     * @param cell current cell
+     * @param value current cell text
+     * @return false if the cell holds something that isn't a valid phone number
      */
-    private void setOwnerEmail(final Owner owner, final Cell cell)
+    private static boolean setPhoneNums(final Owner owner, final String value)
     {
-        if (!cell.getStringCellValue().equals(""))
+        if (value.equals("")) return true;
+
+        //the number is longer than 6 digits
+        if (value.length() > 6)
         {
-            final String eMail = cell.getStringCellValue().toLowerCase(Locale.ROOT);
+            final long num = PHONES.code(value); //validate and encode the number through libphonenumber
 
-            if (FilterUtils.isValidEmail(eMail)) owner.setEmail(eMail);
+            if (num != PhoneSet.NONE)
+            {
+                owner.getPhones().add(num); //a number already in the set is not added twice
+                return true;
+            }
         }
+        return false;
+    }
+
+    /**
+     * Setter of the email column: sets the email in the cell on the owner, or counts it as an invalid email
+     * @param owner current owner
+     * @param value current cell text
+     */
+    private void addEmail(final Owner owner, final String value)
+    {
+        if (!setOwnerEmail(owner, value)) metrics.reject(PipelineMetrics.Rejection.INVALID_EMAIL);
+    }
+
+    /**
+     * Adds the email in the given cell text to the owner if it is valid
+     * @param owner current owner
+     * @param value current cell text
+     * @return false if the cell holds something that isn't a valid email
+     */
+    private static boolean setOwnerEmail(final Owner owner, final String value)
+    {
+        if (value.equals("")) return true;
+
+        final String eMail = value.toLowerCase(Locale.ROOT);
+        if (!FilterUtils.isValidEmail(eMail)) return false;
+
+        owner.setEmail(eMail);
+        return true;
+    }
+
+    /**
+     * @return where the owners of a sheet go: allOwners, or a new spill sink in out-of-core mode
+     */
+    private Consumer<Owner> ownerSink() { return outOfCore == null ? allOwners::add : outOfCore.newOwners(); }
+
+    /**
+     * @return where the properties of a sheet go: allProperties, or a new spill sink in out-of-core mode
+     */
+    private Consumer<Property> propertySink() { return outOfCore == null ? allProperties::add : outOfCore.newProperties(); }
+
+    /**
+     * @return number of owners read so far, on the heap or spilled
+     */
+    private int ownerCount() { return outOfCore == null ? allOwners.size() : outOfCore.ownerCount(); }
+
+    /**
+     * @return true once both owners and properties have been read
+     */
+    private boolean readyToJoin()
+    {
+        if (outOfCore != null) return outOfCore.ownerCount() > 0 && outOfCore.propertyCount() > 0;
+        return !allOwners.isEmpty() && !allProperties.isEmpty();
+    }
+
+    /**
+     * Runs the join and records it as the JOIN stage, then counts the clients in the owner index
+     * @throws IOException if the spill files of an out-of-core join or the owner index can't be read or written
+     */
+    private void setProperty() throws IOException
+    {
+        try (final var span = metrics.start(PipelineMetrics.Stage.JOIN))
+        {
+            if (outOfCore != null)
+            {
+                prospectiveClients.clear();
+                prospectiveClients.addAll(outOfCore.resolve());
+                span.rows(outOfCore.ownerCount(), prospectiveClients.size());
+            }
+            else
+            {
+                joinClients();
+                span.rows(allOwners.size(), prospectiveClients.size());
+            }
+        }
+
+        if (ownerIndex != null) ownerIndex.update(community, prospectiveClients);
     }
 
     /**
      * Builds the prospectiveClients list by matching the owners with their properties. For owners that have multiple
      * properties, that is reflected in the prospectiveClients List
      *
-     * Note: this seems inefficient. I don't like it.
+     * Properties are indexed by pNum and the prospectiveClients by name and phone number, so each owner only visits its
+     * own properties and the clients it can actually be merged with instead of scanning both lists
      */
-    private void setProperty()
+    private void joinClients()
     {
+        if (identityResolution || nameMatcher != null)
+        {
+            prospectiveClients.clear();
+            prospectiveClients.addAll(IdentityResolver.resolve(allOwners, allProperties.index(), nameMatcher));
+            return;
+        }
+
+        final PropertyTable.Index propertyIndex = allProperties.index();
+        final Map<String, List<Owner>> nameIndex = new HashMap<>(); //client name -> clients with that name
+        final Map<Long, List<Owner>> phoneIndex = new HashMap<>(); //phone number code -> clients with that number
+
+        prospectiveClients.forEach(client -> indexClient(client, nameIndex, phoneIndex));
+
         //traverse the list of owners
         for (final Owner owner : allOwners)
         {
             boolean unique = true; //to track whether an owner is already in the prospectiveClients list
 
-            //traverse the list of properties
-            for (final Property prop : allProperties)
+            //traverse the properties that belong to the current owner
+            for (final Property prop : propertyIndex.get(owner.getpNum()))
             {
-                //find the property that belongs to the current owner
-                if (owner.getpNum() == prop.getpNum())
+                //traverse the prospectiveClients that share a name or a phone number with the owner
+                for (final Owner prospectiveClient : findClients(owner, nameIndex, phoneIndex))
                 {
-                    //traverse the prospectiveClients list
-                    for (final Owner prospectiveClient : prospectiveClients)
-                    {
-                        //the owner is already in the list
-                        if (owner.getName().equals(prospectiveClient.getName()))
-                        {
-                            unique = false; //owner is not unique
-                            prospectiveClient.addProperty(prop); //add the property to the existing owner in the prospectiveClient list
-                        }
+                    unique = false; //owner is not unique
 
-                        //the owner is differently named but has the same phone number
-                        else if (FilterUtils.hasCommonElements(owner.getPhoneNums(), prospectiveClient.getPhoneNums()))
-                        {
-                            unique = false; //owner is not unique
-
-                            final String oldName = prospectiveClient.getName(); //get the old name
-                            final String newName = owner.getName(); //get the new name
+                    //the owner is already in the list
+                    if (owner.getName().equals(prospectiveClient.getName())) prospectiveClient.addProperty(prop); //add the property to the existing owner in the prospectiveClient list
 
-                            final String oldEmail = prospectiveClient.getEmail();
-                            final String newEmail = owner.getEmail();
+                    //the owner is differently named but has the same phone number
+                    else
+                    {
+                        final String oldName = prospectiveClient.getName(); //get the old name
+                        final String newName = owner.getName(); //get the new name
 
-                            if (!oldName.contains(newName)) prospectiveClient.setName(oldName + " & " + newName); //update name
+                        final String oldEmail = prospectiveClient.getEmail();
+                        final String newEmail = owner.getEmail();
 
-                            if (oldEmail == null && newEmail != null) prospectiveClient.setEmail(newEmail);
-                            else if (oldEmail != null && newEmail != null) prospectiveClient.setEmail(oldEmail + ", " + newEmail);
+                        if (!oldName.contains(newName))
+                        {
+                            prospectiveClient.setName(oldName + " & " + newName); //update name
 
-                            prospectiveClient.addProperty(prop); //add the property
+                            nameIndex.get(oldName).remove(prospectiveClient); //move the client to its new name
+                            nameIndex.computeIfAbsent(prospectiveClient.getName(), k -> new ArrayList<>()).add(prospectiveClient);
                         }
-                    }
 
-                    //the owner is not in the prospectiveClients list
-                    if (unique)
-                    {
-                        owner.addProperty(prop); //add the property to the owner
-                        prospectiveClients.add(owner); //add the owner to the prospectiveClients list
+                        if (oldEmail == null && newEmail != null) prospectiveClient.setEmail(newEmail);
+                        else if (oldEmail != null && newEmail != null) prospectiveClient.setEmail(oldEmail + ", " + newEmail);
+
+                        prospectiveClient.addProperty(prop); //add the property
                     }
                 }
+
+                //the owner is not in the prospectiveClients list
+                if (unique)
+                {
+                    owner.addProperty(prop); //add the property to the owner
+                    prospectiveClients.add(owner); //add the owner to the prospectiveClients list
+                    indexClient(owner, nameIndex, phoneIndex);
+                }
             }
         }
     }
 
     /**
-     * Rules out unqualified owners from the allOwners list so that only secondary market owners make it onto that list
-     *
-     * This function needs to use the google phone number checking library
+     * Adds a prospective client to the name and phone number indices used by setProperty
+     * @param client the prospective client
+     * @param nameIndex clients by name
+     * @param phoneIndex clients by phone number
+     */
+    private static void indexClient(final Owner client, final Map<String, List<Owner>> nameIndex, final Map<Long, List<Owner>> phoneIndex)
+    {
+        nameIndex.computeIfAbsent(client.getName(), k -> new ArrayList<>(1)).add(client);
+        client.getPhones().forEach(num -> phoneIndex.computeIfAbsent(num, k -> new ArrayList<>(1)).add(client));
+    }
+
+    /**
+     * Looks up every prospective client that either has the same name as the owner or shares a phone number with them
+     * @param owner current owner
+     * @param nameIndex clients by name
+     * @param phoneIndex clients by phone number
+     * @return the matching clients, each listed once
+     */
+    private static Set<Owner> findClients(final Owner owner, final Map<String, List<Owner>> nameIndex, final Map<Long, List<Owner>> phoneIndex)
+    {
+        final Set<Owner> clients = new LinkedHashSet<>(nameIndex.getOrDefault(owner.getName(), List.of()));
+        owner.getPhones().forEach(num -> clients.addAll(phoneIndex.getOrDefault(num, List.of())));
+        return clients;
+    }
+
+    /**
+     * Rules out unqualified owners from the allOwners list so that only secondary market owners make it onto that list,
+     * and counts the reason of every rejection
      * @param owner a property owner
-     * @return true if the client isn't a developer or a government official
+     * @return true if the client has a name and isn't a developer or a government official
      */
-    private static boolean isQualified(final Owner owner)
+    private boolean isQualified(final Owner owner)
     {
-        final var lowerCaseNames = new ArrayList<>(List.of(owner.getName().split(" "))); //isolate each word in the name and insert into an arraylist
-        lowerCaseNames.replaceAll(String::toLowerCase); //change all names to lower case
+        if (owner.getName() == null)
+        {
+            metrics.reject(PipelineMetrics.Rejection.MISSING_NAME);
+            return false;
+        }
 
-        boolean a = FilterUtils.hasCommonElements(lowerCaseNames, REJECTED_OWNERS); //owned by a developer/corporation/sheikh
-        boolean b = owner.getPhoneNums().isEmpty() && owner.getEmail() == null; //no phone numbers and no e-mails (if either is missing that is fine)
+        boolean a = rejectedOwners.matches(owner.getName()); //owned by a developer/corporation/sheikh
+        boolean b = owner.getPhones().isEmpty() && owner.getEmail() == null; //no phone numbers and no e-mails (if either is missing that is fine)
+
+        if (a) metrics.reject(PipelineMetrics.Rejection.CORPORATE_KEYWORD);
+        else if (b) metrics.reject(PipelineMetrics.Rejection.NO_CONTACT);
 
         return !a && !b;
     }
 
+    /**
+     * Indexes the prospective clients for combined queries on their properties, e.g.
+     * indexClients().query().investors().location("Town Square").bedrooms("2 B/R").size(1500, Double.MAX_VALUE).run()
+     * @return a bitmap index over a snapshot of the prospectiveClients list
+     */
+    public ClientIndex indexClients() { return new ClientIndex(prospectiveClients); }
+
+    /**
+     * Hands the prospective clients to a running lookup service, which swaps them in for the community's previous ones
+     * @param service the lookup service
+     * @param community name the clients are served under, e.g. the input file name
+     */
+    public void publishTo(final LookupService service, final String community) { service.publish(community, prospectiveClients); }
+
+    /**
+     * @return number of prospective clients found by the last join
+     */
+    int clientCount() { return prospectiveClients.size(); }
+
     /**
      * Creates a CSV file from the prospectiveClients extracted by findClients()
      */
@@ -265,88 +1050,162 @@ public class FileSorter
     {
         final var output = Path.of(outPath);
 
-        try (final PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(output)))))
+        try (final var span = metrics.start(PipelineMetrics.Stage.EXPORT);
+             final PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(output)))))
         {
+            span.rows(prospectiveClients.size(), prospectiveClients.size());
+
             if (state.equalsIgnoreCase("i"))
-                prospectiveClients.stream().filter(client -> client.getProperties().size() > 1).forEach(writer::println); //investors
+                prospectiveClients.stream().filter(this::isInvestor).forEach(writer::println); //investors
 
             else if (state.equalsIgnoreCase("h"))
-                prospectiveClients.stream().filter(client -> client.getProperties().size() == 1).forEach(writer::println); //homeowners
+                prospectiveClients.stream().filter(this::isHomeowner).forEach(writer::println); //homeowners
 
             else if (state.equalsIgnoreCase("all")) prospectiveClients.forEach(writer::println); //all owners
         }
-        catch (IOException e) { e.printStackTrace(); }
+        catch (IOException e)
+        {
+            metrics.error(PipelineMetrics.Stage.EXPORT);
+            e.printStackTrace();
+        }
     }
 
     public void createFile(final String outPath) { createFile(outPath, "all"); }
 
     /**
-     * Creates an Excel file from the prospectiveClients arraylist
+     * Writes all the prospective clients, the investors and the homeowners (and one file per property location if
+     * asked to) as CSV files in a single pass over the prospectiveClients list
+     * @param outDir directory the files are written to
+     * @param gzip true to gzip every file
+     * @param byLocation true to also write a file per property location
+     */
+    public void exportCsv(final File outDir, final boolean gzip, final boolean byLocation)
+    {
+        try { writeCsv(outDir, gzip, byLocation); }
+        catch (IOException e) { e.printStackTrace(); }
+    }
+
+    /**
+     * Same as exportCsv, but lets the caller handle a failed write
+     * @throws IOException if any of the files can't be written
+     */
+    void writeCsv(final File outDir, final boolean gzip, final boolean byLocation) throws IOException
+    {
+        try (final var span = metrics.start(PipelineMetrics.Stage.EXPORT);
+             final var exporter = new ClientExporter(outDir.toPath(), gzip, byLocation))
+        {
+            exporter.setPortfolio(this::portfolio);
+            exporter.export(prospectiveClients);
+            span.rows(prospectiveClients.size(), prospectiveClients.size());
+        }
+        catch (IOException e)
+        {
+            metrics.error(PipelineMetrics.Stage.EXPORT);
+            throw e;
+        }
+    }
+
+    /**
+     * Creates an Excel file from the prospectiveClients arraylist, with homeowners and investors on separate sheets.
+     * The workbook is streamed through SXSSF, so only the last ROW_WINDOW rows of each sheet are kept in memory and the
+     * rows are written in the same order as the prospectiveClients list
      * @param outFile output location
      */
     public void createExcelFile(final File outFile)
     {
-        try(final FileOutputStream output = new FileOutputStream(outFile))
-        {
-            final var workbook = new XSSFWorkbook(); //create blank workbook
-            final var spreadsheet = workbook.createSheet( " Homeowners "); //create first spreadsheet
-            final var spreadsheet2 = workbook.createSheet(" Investors "); //create second spreadsheet
+        try { writeExcelFile(outFile); }
+        catch (Exception e) { e.printStackTrace(); }
+    }
+
+    /**
+     * Same as createExcelFile, but lets the caller handle a failed write
+     * @param outFile output location
+     * @throws IOException if the workbook can't be written
+     */
+    void writeExcelFile(final File outFile) throws IOException
+    {
+        final var workbook = new SXSSFWorkbook(ROW_WINDOW); //create blank streaming workbook
 
-            final Map <String, Object[]> clientInfo = new TreeMap<>(); //maps a number index to client information
-            final Map <String, Object[]> investorInfo = new TreeMap<>(); //maps a number index to investor information
+        try (final var span = metrics.start(PipelineMetrics.Stage.EXPORT);
+             final FileOutputStream output = new FileOutputStream(outFile))
+        {
+            final var homeowners = workbook.createSheet(" Homeowners "); //create first spreadsheet
+            final var investors = workbook.createSheet(" Investors "); //create second spreadsheet
 
-            clientInfo.put("1", new Object[] {"Name", "Phone Number(s)", "e-Mail", "Property" }); //create the file header row
-            investorInfo.put("1", new Object[] {"Name", "Phone Number(s)", "e-Mail", "Properties"}); //create the filer header row
+            writeExcelRow(homeowners, 0, "Name", "Phone Number(s)", "e-Mail", "Property"); //create the file header row
+            writeExcelRow(investors, 0, "Name", "Phone Number(s)", "e-Mail", "Properties"); //create the file header row
 
-            final List<Owner> homeowners = prospectiveClients.stream().filter(client -> client.getProperties().size() == 1).collect(Collectors.toCollection(ArrayList::new)); //filter out clients with one property
-            final List<Owner> investors = prospectiveClients.stream().filter(client -> client.getProperties().size() > 1).collect(Collectors.toCollection(ArrayList::new)); //filter out clients with multiple properties
+            int homeownerRow = 1;
+            int investorRow = 1;
 
-            //prepare Excel sheets
-            ExcelFileHelper(spreadsheet, clientInfo, homeowners);
-            ExcelFileHelper(spreadsheet2, investorInfo, investors);
+            //write each client to the sheet it belongs to in one pass over the list
+            for (final Owner client : prospectiveClients)
+            {
+                if (isHomeowner(client)) writeExcelRow(homeowners, homeownerRow++, excelCells(client));
+                else if (isInvestor(client)) writeExcelRow(investors, investorRow++, excelCells(client));
+            }
 
             workbook.write(output); //write the data into the workbook
+            span.rows(prospectiveClients.size(), homeownerRow + investorRow - 2); //clients in either sheet
         }
-        catch (Exception e) { e.printStackTrace(); }
+        catch (IOException e)
+        {
+            metrics.error(PipelineMetrics.Stage.EXPORT);
+            throw e;
+        }
+        finally { workbook.dispose(); } //delete the temporary sheet files
     }
 
     /**
-     * Writes into the given map then sets up the Excel sheet
+     * @param client a prospective client
+     * @return the cells of the client's row in the Excel output
+     */
+    private static String[] excelCells(final Owner client)
+    {
+        return new String[] {client.getName(), client.getPhones().toString(), client.getEmail(), client.getProperties().toString()};
+    }
+
+    /**
+     * Creates a row in the spreadsheet and writes the values into its cells
      * @param spreadsheet current spreadsheet
-     * @param map current map of indexes and clients
-     * @param clients owners of properties
+     * @param rowid index of the new row
+     * @param values text of each cell
      */
-    private void ExcelFileHelper(final XSSFSheet spreadsheet, final Map<String, Object[]> map, final List<Owner> clients)
+    private static void writeExcelRow(final Sheet spreadsheet, final int rowid, final String... values)
     {
-        var tracker = new AtomicInteger(2); //tracker (starts at '2' because at '1' is the row header
-        Row row;
+        final Row row = spreadsheet.createRow(rowid); //create a row in the spreadsheet
 
-        //iterate clients
-        clients.forEach(owner -> map.put("" + tracker.getAndIncrement(),
-                new Object[] {owner.getName(), owner.getPhoneNums().toString(), owner.getEmail(), owner.getProperties().toString()})); //for each client, map an index to the client information
+        for (int cellid = 0; cellid < values.length; cellid++) row.createCell(cellid).setCellValue(values[cellid]); //write into the cell
+    }
 
-        //Iterate over data and write to sheet
-        final Set <String> keyid = map.keySet(); //extract the indexes of the map
-        int rowid = 0; //tracker for the rows
+    /**
+     * @param client a prospective client
+     * @return the number of properties the client owns: in every indexed community if there is an owner index,
+     *         otherwise in this run
+     */
+    private int portfolio(final Owner client)
+    {
+        final int owned = client.getProperties().size();
+        return ownerIndex == null ? owned : Math.max(owned, ownerIndex.portfolio(client));
+    }
 
-        //iterate the indexes of the map
-        for (final String key : keyid)
-        {
-            row = spreadsheet.createRow(rowid++); //create a row in the spreadsheet
-            final Object[] objectArr = map.get(key); //extract the client object list from the map
-            int cellid = 0;
+    /**
+     * @param client a prospective client
+     * @return true if the client owns more than one property
+     */
+    private boolean isInvestor(final Owner client) { return portfolio(client) > 1; }
 
-            //iterate the client object list
-            for (final Object obj : objectArr)
-            {
-                final Cell cell = row.createCell(cellid++); //create a cell for each object in the client object
-                cell.setCellValue((String)obj); //write into the cell with the object data
-            }
-        }
-    }
+    /**
+     * @param client a prospective client
+     * @return true if the client owns exactly one property
+     */
+    private boolean isHomeowner(final Owner client) { return portfolio(client) == 1; }
 
     public static void main(String[] args)
     {
+        if (args.length > 0 && args[0].equals(ShardedRun.WORKER)) System.exit(ShardedRun.work(args)); //worker of a sharded run, see ShardedRun
+        if (args.length > 0) System.exit(BatchRunner.execute(args)); //batch mode, see BatchRunner
+
         var townSquare = new FileSorter();
 //        var damacHills = new FileSorter();
 
@@ -357,16 +1216,13 @@ public class FileSorter
         var townSQuareOutFile = new File("/Users/yelderiny/Intelligence/DreamCatcher/Data/Town Square/townSquare_filtered.xlsx");
 
 
-        townSquare.readExcel(townSquareInFile,0, "p");
-        townSquare.readExcel(townSquareInFile,1, "o");
-        townSquare.readExcel(townSquareInFile,2, "o");
+        townSquare.readWorkbook(townSquareInFile, "p", "o", "o");
 
         townSquare.createExcelFile(townSQuareOutFile);
 
 
 
-//        damacHills.readExcel(damacHillsInFile, 0, "p");
-//        damacHills.readExcel(damacHillsInFile, 1, "o");
+//        damacHills.readWorkbook(damacHillsInFile, "p", "o");
 //
 //        damacHills.createExcelFile(damacHillsOutFile);
     }
@@ -1,14 +1,8 @@
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 public class FilterUtils
 {
 
-    //TODO investigate google phone number library
-
     /**
      * Changes a name from whatever case it is at input to Camel Casing
      * @param names the name as a String
@@ -31,42 +25,67 @@ public class FilterUtils
     }
 
     /**
-     * Takes a phone number as a string and removes any excess characters like '-' or '|' or '+' leaving only the numbers
+     * Takes a phone number as a string and removes any excess characters like '-' or '|' or '+' leaving only the numbers,
+     * then rewrites the local UAE mobile forms (05X..., 5X... and 9710 5X...) and the 00 international prefix so every
+     * number is stored the same way.
+     *
+     * The digits are collected and rewritten in place in a single char buffer, so the only object created is the result
      * @param phoneNumber a phone number as a string
      * @return a phone number as a String
      */
     public static String reformatNumber(final String phoneNumber)
     {
-        final var newNum = new StringBuilder(); //initialize StringBuilder
-        final char[] num = phoneNumber.toCharArray(); //convert to char array
+        final char[] num = new char[phoneNumber.length() + 3]; //room to prepend "971"
+        int start = 3;
+        int end = start;
+
+        //traverse the characters and keep only the numbers
+        for (int i = 0; i < phoneNumber.length(); i++)
+        {
+            final char c = phoneNumber.charAt(i);
+            if (Character.isDigit(c)) num[end++] = c;
+        }
 
-        //traverse the characters
-        for (final char c : num) if (Character.isDigit(c)) newNum.append(c); //add them to the StringBuilder only if they are numbers
+        if (end - start < 3) return new String(num, start, end - start); //too short to carry any of the prefixes
 
         //reformat numbers from 0XY to 971XY
-        if (    newNum.substring(0,3).equals("050") ||
-                newNum.substring(0,3).equals("052") ||
-                newNum.substring(0,3).equals("055") ||
-                newNum.substring(0,3).equals("056") ||
-                newNum.substring(0,3).equals("057") ||
-                newNum.substring(0,3).equals("058")) newNum.replace(0, 1, "971");
+        if (num[start] == '0' && num[start + 1] == '5' && isMobilePrefix(num[start + 2]))
+        {
+            start -= 2;
+            num[start] = '9';
+            num[start + 1] = '7';
+            num[start + 2] = '1';
+        }
 
         //reformat numbers from XY to 971XY
-        if ((   newNum.substring(0,2).equals("50") ||
-                newNum.substring(0,2).equals("52") ||
-                newNum.substring(0,2).equals("55") ||
-                newNum.substring(0,2).equals("56") ||
-                newNum.substring(0,2).equals("57") ||
-                newNum.substring(0,2).equals("58"))
-                && newNum.length() == 9) newNum.insert(0, "971");
+        else if (num[start] == '5' && isMobilePrefix(num[start + 1]) && end - start == 9)
+        {
+            start -= 3;
+            num[start] = '9';
+            num[start + 1] = '7';
+            num[start + 2] = '1';
+        }
 
-        if (newNum.substring(0,5).equals("97105")) newNum.deleteCharAt(3); //reformat numbers from 9710XY to 971XY
+        //reformat numbers from 9710XY to 971XY
+        if (end - start >= 5 && num[start] == '9' && num[start + 1] == '7' && num[start + 2] == '1' && num[start + 3] == '0' && num[start + 4] == '5')
+        {
+            num[start + 3] = num[start + 2];
+            num[start + 2] = num[start + 1];
+            num[start + 1] = num[start];
+            start++;
+        }
 
-        if (newNum.substring(0,2).equals("00")) newNum.delete(0,2); //reformat numbers from 00... to ...
+        if (num[start] == '0' && num[start + 1] == '0') start += 2; //reformat numbers from 00... to ...
 
-        return newNum.toString().trim(); //return the string trimmed
+        return new String(num, start, end - start);
     }
 
+    /**
+     * @param c the digit after '5' in a UAE mobile number
+     * @return true if 5c is one of the UAE mobile network prefixes 50, 52, 55, 56, 57 and 58
+     */
+    private static boolean isMobilePrefix(final char c) { return c == '0' || c == '2' || (c >= '5' && c <= '8'); }
+
     /**
      * Checks if a number is valid based on how a UAE number is supposed to look like
      * @param num phone number
@@ -74,17 +93,10 @@ public class FilterUtils
      */
     public static boolean isValidNumber(final String num)
     {
-        boolean a = num.startsWith("9715") &&
-                (num.substring(4).equals("000") &&
-                        num.substring(4).equals("0000") &&
-                        num.substring(4).equals("00000") &&
-                        num.substring(4).equals("000000") &&
-                        num.substring(4).equals("0000000") &&
-                        num.substring(4).equals("00000000"));
-        boolean b = num.startsWith("971") && num.length() != 12;
-        boolean c = num.startsWith("04");
-
-        return !a && !b && !c;
+        boolean b = num.startsWith("971") && num.length() != 12; //UAE numbers have 12 digits with the country code
+        boolean c = num.startsWith("04"); //Dubai landline
+
+        return !b && !c;
     }
 
     /**
@@ -92,62 +104,60 @@ public class FilterUtils
      * @param eMail input email as String
      * @return a boolean that represent the email validity
      */
-    public static boolean isValidEmail(String eMail)
+    public static boolean isValidEmail(final String eMail)
     {
         //0@0.com, 000@000.ooo, 1@h.com, 1@GMAIL.COM, 0000@0000.com, 00@00.COM, 1@1.COM, 00@000.com, H@HOTMAIL.COM
-        if (!eMail.contains("@")) return false;
-
-        final String[] parts = eMail.split("@");
-        final String[] second_part = parts[1].split("\\.");
+        if (!isValidEmailFormat(eMail)) return false; //the format guarantees exactly one '@' and a dotted domain
 
-        boolean a = parts[0].length() == 1;
-        boolean b = parts[0].contains("dummy");
+        final int at = eMail.indexOf('@');
+        int domainEnd = eMail.indexOf('.', at + 1); //end of the first part of the domain
+        if (domainEnd == -1) domainEnd = eMail.length();
 
-        boolean c = second_part[0].length() == 1;
-        boolean d = isValidEmailHelper(second_part[0]);
+        boolean a = at == 1;
+        boolean b = eMail.lastIndexOf("dummy", at - 5) != -1;
 
-        boolean e = isValidEmailFormat(eMail);
+        boolean c = domainEnd - at - 1 == 1;
+        boolean d = isInteger(eMail, at + 1, domainEnd);
 
-        return !a && !b && !c && !d && e;
+        return !a && !b && !c && !d;
     }
 
+    private static final Pattern EMAIL_FORMAT = Pattern.compile("^[a-zA-Z0-9.!#$%&'*+/=?^_`{|}~-]+@((\\[[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}\\])|(([a-zA-Z\\-0-9]+\\.)+[a-zA-Z]{2,}))$");
+
     /**
      * Checks if the format of the email is correct
      * @param eMail as a string
      * @return true if the format is correct, else false
      */
-    private static boolean isValidEmailFormat(String eMail)
-    {
-        final String ePattern = "^[a-zA-Z0-9.!#$%&'*+/=?^_`{|}~-]+@((\\[[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}\\])|(([a-zA-Z\\-0-9]+\\.)+[a-zA-Z]{2,}))$";
-        Pattern p = java.util.regex.Pattern.compile(ePattern);
-        Matcher m = p.matcher(eMail);
-        return m.matches();
-    }
+    private static boolean isValidEmailFormat(final String eMail) { return EMAIL_FORMAT.matcher(eMail).matches(); }
 
     /**
-     * Checks if a given string is an integer
-     * @param part given string
+     * Checks if a part of a string is an int, following the same rules as Integer.parseInt but without throwing
+     * @param s given string
+     * @param from start of the part, inclusive
+     * @param to end of the part, exclusive
      * @return true if it is an integer and false if it is not
      */
-    private static boolean isValidEmailHelper(String part)
+    private static boolean isInteger(final String s, int from, final int to)
     {
-        try { final int intvalue = Integer.parseInt(part);}
-        catch (NumberFormatException e) { return false; }
-        return true;
-    }
+        if (from == to) return false;
 
-    /**
-     * Invoked when first creating the prospectiveClients arraylist, this method checks if there is any element of one
-     * arraylist that is present in the other arraylist. This is to find out if two arraylists have the
-     * same elements
-     * @param a an arraylist of phone numbers
-     * @param b an arraylist of phone numbers
-     * @return true if there is a common phone number in both lists, false otherwise
-     */
-    public static boolean hasCommonElements(final List<String> a, final List<String> b)
-    {
-        final List<String> c = a.stream().filter(b::contains).collect(Collectors.toCollection(ArrayList::new));
-        return !c.isEmpty();
+        final boolean negative = s.charAt(from) == '-';
+        if (negative || s.charAt(from) == '+') from++;
+        if (from == to) return false; //a sign on its own
+
+        final long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+
+        for (int i = from; i < to; i++)
+        {
+            final int digit = Character.digit(s.charAt(i), 10);
+            if (digit < 0) return false;
+
+            value = value * 10 + digit;
+            if (value > limit) return false; //overflows an int
+        }
+        return true;
     }
 
 }
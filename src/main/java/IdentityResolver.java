@@ -0,0 +1,184 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Groups owners that are the same person into a single client. Owners are linked when they share a phone number, an
+ * email or a name, and the links are followed transitively (A shares a phone with B, B shares an email with C, so A, B
+ * and C are one client). Every key is looked up in a hash index and the links are merged in a union-find structure, so
+ * resolving n owners takes near linear time.
+ *
+ * With a NameMatcher, owners whose names are spelling variants of each other are linked as well, and a variant of a name
+ * the client already has isn't added to its joint name.
+ */
+public class IdentityResolver
+{
+    private IdentityResolver() {}
+
+    /**
+     * Matches the owners with their properties and merges the ones that belong to the same person
+     * @param owners qualified owners, in the order they were read
+     * @param propertyIndex properties grouped by property number
+     * @return one merged owner per person that owns at least one property, in the order they first appear
+     */
+    public static List<Owner> resolve(final List<Owner> owners, final PropertyTable.Index propertyIndex)
+    {
+        return resolve(owners, propertyIndex, null);
+    }
+
+    /**
+     * Matches the owners with their properties and merges the ones that belong to the same person, including the ones
+     * whose names only match approximately
+     * @param owners qualified owners, in the order they were read
+     * @param propertyIndex properties grouped by property number
+     * @param nameMatcher links owners with similar names, or null to only link equal names
+     * @return one merged owner per person that owns at least one property, in the order they first appear
+     */
+    public static List<Owner> resolve(final List<Owner> owners, final PropertyTable.Index propertyIndex, final NameMatcher nameMatcher)
+    {
+        final List<Owner> members = new ArrayList<>(); //owners that own something
+
+        for (final Owner owner : owners) if (propertyIndex.contains(owner.getpNum())) members.add(owner);
+
+        final UnionFind clusters = link(members);
+        if (nameMatcher != null) nameMatcher.link(members, clusters);
+        final int[] clusterOf = new int[members.size()]; //root -> position in the output list
+        final List<List<Owner>> grouped = new ArrayList<>();
+
+        Arrays.fill(clusterOf, -1);
+
+        //group the members by cluster, ordered by the first member of each cluster
+        for (int i = 0; i < members.size(); i++)
+        {
+            final int root = clusters.find(i);
+
+            if (clusterOf[root] == -1)
+            {
+                clusterOf[root] = grouped.size();
+                grouped.add(new ArrayList<>(1));
+            }
+            grouped.get(clusterOf[root]).add(members.get(i));
+        }
+
+        final List<Owner> clients = new ArrayList<>(grouped.size());
+        grouped.forEach(group -> clients.add(merge(group, propertyIndex::get, nameMatcher)));
+
+        return Collections.unmodifiableList(clients);
+    }
+
+    /**
+     * Unions every pair of owners that share a normalized phone number, email or name
+     * @param owners the owners, identified by their position in the list
+     * @return the resulting disjoint sets
+     */
+    static UnionFind link(final List<Owner> owners)
+    {
+        final var clusters = new UnionFind(owners.size());
+        final Map<Long, Integer> phoneIndex = new HashMap<>(); //phone number code -> first owner with it
+        final Map<String, Integer> emailIndex = new HashMap<>(); //email -> first owner with it
+        final Map<String, Integer> nameIndex = new HashMap<>(); //name -> first owner with it
+
+        for (int i = 0; i < owners.size(); i++)
+        {
+            final Owner owner = owners.get(i);
+            final PhoneSet phones = owner.getPhones();
+
+            for (int p = 0; p < phones.size(); p++) link(clusters, phoneIndex, phones.get(p), i);
+            link(clusters, emailIndex, normalizeEmail(owner.getEmail()), i);
+            link(clusters, nameIndex, normalizeName(owner.getName()), i);
+        }
+        return clusters;
+    }
+
+    /**
+     * Records the key for the given owner, or unions the owner with the first owner that had the key
+     */
+    private static <K> void link(final UnionFind clusters, final Map<K, Integer> index, final K key, final int id)
+    {
+        if (key == null || "".equals(key)) return;
+
+        final Integer first = index.putIfAbsent(key, id);
+        if (first != null) clusters.union(first, id);
+    }
+
+    /**
+     * Builds one client out of every owner in a cluster
+     * @param group owners of the cluster, in the order they were read
+     * @param propertyIndex the properties of a property number
+     * @param nameMatcher keeps spelling variants of a name out of the joint name, may be null
+     * @return the merged client
+     */
+    static Owner merge(final List<Owner> group, final IntFunction<List<Property>> propertyIndex, final NameMatcher nameMatcher)
+    {
+        final Owner first = group.get(0);
+        final var client = new Owner();
+        final Set<String> emails = new LinkedHashSet<>();
+        final Set<Property> properties = new LinkedHashSet<>(); //co-owners in one cluster share the same property
+        final List<String> names = new ArrayList<>(1); //the names making up the joint name
+
+        client.setName(first.getName());
+        client.setSex(first.getSex());
+        client.setpNum(first.getpNum());
+        names.add(first.getName());
+
+        for (final Owner owner : group)
+        {
+            if (!client.getName().contains(owner.getName()) && !isVariant(owner.getName(), names, nameMatcher))
+            {
+                client.setName(client.getName() + " & " + owner.getName()); //joint name
+                names.add(owner.getName());
+            }
+            if (owner.getEmail() != null) emails.add(owner.getEmail());
+
+            client.getPhones().addAll(owner.getPhones()); //in order, without repeats
+            properties.addAll(propertyIndex.apply(owner.getpNum()));
+        }
+
+        if (!emails.isEmpty()) client.setEmail(String.join(", ", emails));
+        properties.forEach(client::addProperty);
+
+        return client;
+    }
+
+    /**
+     * @return true if the name is a spelling variant of one of the names
+     */
+    private static boolean isVariant(final String name, final List<String> names, final NameMatcher nameMatcher)
+    {
+        if (nameMatcher == null) return false;
+
+        for (final String other : names) if (nameMatcher.matches(name, other)) return true;
+        return false;
+    }
+
+    /**
+     * @param eMail an owner's email
+     * @return the email in lower case without surrounding blanks, or null if there is none
+     */
+    static String normalizeEmail(final String eMail) { return eMail == null ? null : eMail.trim().toLowerCase(Locale.ROOT); }
+
+    /**
+     * @param name an owner's name
+     * @return the name in lower case with single spaces between the words, or null if there is none
+     */
+    static String normalizeName(final String name)
+    {
+        if (name == null) return null;
+
+        final var normalized = new StringBuilder(name.length());
+
+        for (final String word : name.trim().split("\\s+"))
+        {
+            if (normalized.length() > 0) normalized.append(' ');
+            normalized.append(word.toLowerCase(Locale.ROOT));
+        }
+        return normalized.toString();
+    }
+}
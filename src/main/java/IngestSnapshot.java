@@ -0,0 +1,420 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary record of the rows processed by a previous run, so that the next run of a mostly unchanged export
+ * only has to normalize and qualify the rows that are new or changed.
+ *
+ * Every input row is identified by a 64-bit fingerprint of the cells FileSorter reads from it. The snapshot stores,
+ * per fingerprint, the row's pNum and the Property or Owner it produced (or that the owner was rejected). The file is
+ * memory-mapped on load and only the fingerprint index is built up front; a record is decoded when a row hits it.
+ *
+ * Layout: MAGIC, VERSION, rules version (long), then one record per row:
+ * fingerprint (long), kind (byte), pNum (int), followed by the Property or Owner fields. Strings are written as their
+ * UTF-8 length (int, -1 for null) and bytes, phone numbers as their PhoneSet codes (long).
+ */
+public class IngestSnapshot
+{
+    private static final int MAGIC = 0x44465331; //"DFS1"
+    private static final int VERSION = 2; //2: phone numbers as PhoneSet codes
+
+    static final byte PROPERTY = 0;
+    static final byte OWNER = 1;
+    static final byte REJECTED_OWNER = 2;
+
+    private final ByteBuffer records; //mapped file, empty if there was no usable snapshot
+    private final Map<Long, Integer> index; //fingerprint -> ordinal of its first record
+    private final int[] offsets; //ordinal -> position of the record
+    private final int[] pNums; //ordinal -> pNum of the record
+
+    private IngestSnapshot(final ByteBuffer records, final Map<Long, Integer> index, final int[] offsets, final int[] pNums)
+    {
+        this.records = records;
+        this.index = index;
+        this.offsets = offsets;
+        this.pNums = pNums;
+    }
+
+    /**
+     * Maps a snapshot written by a previous run
+     * @param file snapshot location
+     * @param rulesVersion version of the rules that decided which owners were rejected; a snapshot written under other
+     *                     rules is ignored because its decisions may no longer hold
+     * @return the snapshot, or an empty one if the file doesn't exist or can't be reused
+     * @throws IOException if the file can't be read
+     */
+    public static IngestSnapshot open(final Path file, final long rulesVersion) throws IOException
+    {
+        if (!Files.isRegularFile(file)) return empty();
+
+        final MappedByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Snapshot " + file + " is larger than 2 GB");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != rulesVersion) return empty();
+
+        //index every record by fingerprint, the records themselves stay in the mapped file
+        final Map<Long, Integer> index = new HashMap<>();
+        int[] offsets = new int[1024];
+        int[] pNums = new int[1024];
+        int count = 0;
+
+        while (buffer.hasRemaining())
+        {
+            if (count == offsets.length)
+            {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                pNums = Arrays.copyOf(pNums, count * 2);
+            }
+            offsets[count] = buffer.position();
+
+            final long fingerprint = buffer.getLong();
+            final byte kind = buffer.get();
+            pNums[count] = buffer.getInt();
+            skipRecord(buffer, kind);
+
+            index.putIfAbsent(fingerprint, count++); //identical rows produce identical records
+        }
+        return new IngestSnapshot(buffer, index, Arrays.copyOf(offsets, count), Arrays.copyOf(pNums, count));
+    }
+
+    private static IngestSnapshot empty() { return new IngestSnapshot(ByteBuffer.allocate(0), Map.of(), new int[0], new int[0]); }
+
+    private static void skipRecord(final ByteBuffer buffer, final byte kind)
+    {
+        if (kind == PROPERTY)
+        {
+            for (int i = 0; i < 3; i++) skipString(buffer);
+            buffer.getDouble();
+        }
+        else if (kind == OWNER)
+        {
+            for (int i = 0; i < 3; i++) skipString(buffer);
+            final int phones = buffer.get();
+            buffer.position(buffer.position() + phones * Long.BYTES);
+        }
+    }
+
+    private static void skipString(final ByteBuffer buffer)
+    {
+        final int length = buffer.getInt();
+        if (length > 0) buffer.position(buffer.position() + length);
+    }
+
+    private static String readString(final ByteBuffer buffer)
+    {
+        final int length = buffer.getInt();
+        if (length == -1) return null;
+
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Hashes the cells of a row that FileSorter reads (FNV-1a over the cell texts, in column order)
+     * @param kind PROPERTY or OWNER, so property and owner rows never share a fingerprint
+     * @param values cells of the row
+     * @param columns the read columns, -1 for missing ones
+     * @return the fingerprint
+     */
+    static long fingerprint(final byte kind, final String[] values, final int[] columns)
+    {
+        long hash = 0xcbf29ce484222325L ^ kind;
+
+        for (final int col : columns)
+        {
+            final String value = col == -1 || col >= values.length ? null : values[col];
+
+            if (value != null) for (int i = 0; i < value.length(); i++) hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            hash = (hash ^ (value == null ? 0x1F : 0x1E)) * 0x100000001b3L; //cell separator, distinguishes null from ""
+        }
+        return hash;
+    }
+
+    /**
+     * @return number of records in the snapshot
+     */
+    public int size() { return offsets.length; }
+
+    /**
+     * A record of the previous run
+     */
+    class Entry
+    {
+        private final int ordinal;
+        private final byte kind;
+
+        private Entry(final int ordinal)
+        {
+            this.ordinal = ordinal;
+            this.kind = records.get(offsets[ordinal] + 8);
+        }
+
+        /**
+         * @return true if the row was an owner that didn't qualify
+         */
+        boolean isRejected() { return kind == REJECTED_OWNER; }
+
+        /**
+         * @return the property the row produced
+         */
+        Property toProperty()
+        {
+            final ByteBuffer buffer = at();
+            final var prop = new Property();
+
+            prop.setpNum(pNums[ordinal]);
+            prop.setName(readString(buffer));
+            prop.setLocation(readString(buffer));
+            prop.setBedrooms(readString(buffer));
+            prop.setSize(buffer.getDouble());
+            return prop;
+        }
+
+        /**
+         * @return the qualified owner the row produced
+         */
+        Owner toOwner()
+        {
+            final ByteBuffer buffer = at();
+            final var owner = new Owner();
+
+            owner.setpNum(pNums[ordinal]);
+            owner.setName(readString(buffer));
+            owner.setEmail(readString(buffer));
+            owner.setSex(readString(buffer));
+
+            final int phones = buffer.get();
+            for (int i = 0; i < phones; i++) owner.addPhone(buffer.getLong());
+            return owner;
+        }
+
+        /**
+         * @return a private view of the mapped file, positioned after the record's pNum
+         */
+        private ByteBuffer at() { return records.duplicate().position(offsets[ordinal] + 13); }
+    }
+
+    /**
+     * The pNums that were added, removed or changed since the previous snapshot
+     */
+    public static class Diff
+    {
+        private final Set<Integer> added;
+        private final Set<Integer> removed;
+        private final Set<Integer> changed;
+        private final int reusedRows;
+        private final int parsedRows;
+
+        Diff(final Set<Integer> added, final Set<Integer> removed, final Set<Integer> changed, final int reusedRows, final int parsedRows)
+        {
+            this.added = Collections.unmodifiableSet(new TreeSet<>(added));
+            this.removed = Collections.unmodifiableSet(new TreeSet<>(removed));
+            this.changed = Collections.unmodifiableSet(new TreeSet<>(changed));
+            this.reusedRows = reusedRows;
+            this.parsedRows = parsedRows;
+        }
+
+        public Set<Integer> getAdded() { return added; } //pNums only in the new export
+        public Set<Integer> getRemoved() { return removed; } //pNums only in the previous export
+        public Set<Integer> getChanged() { return changed; } //pNums in both exports whose rows differ
+        public int getReusedRows() { return reusedRows; }
+        public int getParsedRows() { return parsedRows; }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d added, %d removed, %d changed pNums (%d rows reused, %d rows parsed)", added.size(), removed.size(), changed.size(), reusedRows, parsedRows);
+        }
+    }
+
+    /**
+     * One incremental run: looks rows up in the previous snapshot and records every row of the current export into the
+     * next one. Safe to use from several sheet threads at once
+     */
+    public static class Run implements Closeable
+    {
+        private final IngestSnapshot previous;
+        private final Path target;
+        private final Path tmp;
+        private final DataOutputStream next;
+        private final BitSet seen = new BitSet(); //ordinals of the previous snapshot found again
+        private final Set<Integer> current = ConcurrentHashMap.newKeySet(); //pNums of the current export
+        private final Set<Integer> changed = ConcurrentHashMap.newKeySet(); //pNums with at least one new row
+        private int reusedRows;
+        private int parsedRows;
+
+        /**
+         * @param snapshotFile where the previous snapshot is read from and the new one is written to
+         * @param rulesVersion version of the owner rejection rules in use
+         * @throws IOException if the snapshot can't be read or the new one can't be created
+         */
+        public Run(final Path snapshotFile, final long rulesVersion) throws IOException
+        {
+            previous = open(snapshotFile, rulesVersion);
+            target = snapshotFile;
+            tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            next = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16));
+
+            next.writeInt(MAGIC);
+            next.writeInt(VERSION);
+            next.writeLong(rulesVersion);
+        }
+
+        /**
+         * Looks a row up in the previous snapshot
+         * @param fingerprint the row's fingerprint
+         * @param pNum the row's property number
+         * @return the previous record, or null if the row is new or changed
+         */
+        Entry lookup(final long fingerprint, final int pNum)
+        {
+            current.add(pNum);
+            final Integer ordinal = previous.index.get(fingerprint);
+
+            synchronized (this)
+            {
+                if (ordinal == null)
+                {
+                    parsedRows++;
+                    changed.add(pNum);
+                    return null;
+                }
+                reusedRows++;
+                seen.set(ordinal);
+            }
+            return previous.new Entry(ordinal);
+        }
+
+        /**
+         * Copies a record of the previous snapshot, unchanged, into the next one
+         * @param entry a record returned by lookup
+         */
+        synchronized void record(final Entry entry) throws IOException
+        {
+            final int start = previous.offsets[entry.ordinal];
+            final int end = entry.ordinal + 1 < previous.offsets.length ? previous.offsets[entry.ordinal + 1] : previous.records.limit();
+            final byte[] bytes = new byte[end - start];
+
+            previous.records.duplicate().position(start).get(bytes);
+            next.write(bytes);
+        }
+
+        /**
+         * Records a property row into the next snapshot
+         */
+        synchronized void record(final long fingerprint, final Property prop) throws IOException
+        {
+            header(fingerprint, PROPERTY, prop.getpNum());
+            writeString(prop.getName());
+            writeString(prop.getLocation());
+            writeString(prop.getBedrooms());
+            next.writeDouble(prop.getSize());
+        }
+
+        /**
+         * Records an owner row into the next snapshot
+         * @param owner the qualified owner, or null if the owner was rejected
+         */
+        synchronized void record(final long fingerprint, final int pNum, final Owner owner) throws IOException
+        {
+            if (owner == null)
+            {
+                header(fingerprint, REJECTED_OWNER, pNum);
+                return;
+            }
+
+            header(fingerprint, OWNER, pNum);
+            writeString(owner.getName());
+            writeString(owner.getEmail());
+            writeString(owner.getSex());
+
+            final PhoneSet phones = owner.getPhones();
+            next.writeByte(phones.size());
+            for (int i = 0; i < phones.size(); i++) next.writeLong(phones.get(i));
+        }
+
+        private void header(final long fingerprint, final byte kind, final int pNum) throws IOException
+        {
+            next.writeLong(fingerprint);
+            next.writeByte(kind);
+            next.writeInt(pNum);
+        }
+
+        private void writeString(final String value) throws IOException
+        {
+            if (value == null)
+            {
+                next.writeInt(-1);
+                return;
+            }
+
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            next.writeInt(bytes.length);
+            next.write(bytes);
+        }
+
+        /**
+         * Replaces the previous snapshot with the one recorded during this run
+         * @return what changed since the previous snapshot
+         * @throws IOException if the snapshot can't be written
+         */
+        public Diff commit() throws IOException
+        {
+            next.close();
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+
+            final Set<Integer> previousPNums = new HashSet<>();
+            for (final int pNum : previous.pNums) previousPNums.add(pNum);
+
+            final Set<Integer> added = new HashSet<>(current);
+            added.removeAll(previousPNums);
+
+            final Set<Integer> removed = new HashSet<>(previousPNums);
+            removed.removeAll(current);
+
+            //rows of the previous export that disappeared also change their pNum
+            for (final int ordinal : previous.index.values()) if (!seen.get(ordinal)) changed.add(previous.pNums[ordinal]);
+
+            final Set<Integer> changedOnly = new HashSet<>(changed);
+            changedOnly.retainAll(previousPNums);
+            changedOnly.retainAll(current);
+
+            return new Diff(added, removed, changedOnly, reusedRows, parsedRows);
+        }
+
+        /**
+         * Discards the snapshot recorded during this run if it wasn't committed
+         */
+        @Override
+        public void close() throws IOException
+        {
+            next.close();
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
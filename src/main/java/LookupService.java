@@ -0,0 +1,372 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Serves point lookups of prospective clients by phone number, email or P-NUMBER over a local HTTP/JSON endpoint, for
+ * the call-centre tools.
+ *
+ * The clients of every community published so far are held in an immutable Index: hash maps from each key to the
+ * JSON of the matching clients, so a lookup is a map get and a string join. A client is rendered to JSON once, when its
+ * community is published, and only the JSON and its keys are kept, not the Owner and its properties. publish() builds a
+ * new index next to the old one and swaps it in with a single reference write; requests that are being served keep the
+ * index they started with, so a swap never blocks or fails a request. A new community is added on top of a copy of the
+ * previous index's maps; publishing a community again rebuilds the index from the JSON kept for every community.
+ *
+ * Endpoints, all answering with JSON:
+ *   GET  /owners?phone=... | ?email=... | ?pnum=...   array of the matching clients
+ *   POST /owners/batch                                 one "phone=...", "email=..." or "pnum=..." query per body line;
+ *                                                      answers an object with the array of each query
+ *   GET  /status                                       number of clients and communities, and when they were loaded
+ */
+public class LookupService
+{
+    private final HttpServer server;
+    private final ExecutorService pool;
+    private final PhoneNormalizer phones = new PhoneNormalizer("AE", 1 << 12); //queried numbers are written like the cells
+
+    private final Map<String, List<Entry>> communities = new LinkedHashMap<>(); //rendered clients by community, guarded by this
+    private final AtomicReference<Index> index = new AtomicReference<>(new Index(Map.of()));
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Binds the server to the loopback address; call start() to begin serving
+     * @param port TCP port, 0 for any free port
+     * @param threads number of requests served at the same time
+     * @throws IOException if the port can't be bound
+     */
+    public LookupService(final int port, final int threads) throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        pool = Executors.newFixedThreadPool(threads);
+
+        server.setExecutor(pool);
+        server.createContext("/owners", this::lookup);
+        server.createContext("/owners/batch", this::batch);
+        server.createContext("/status", this::status);
+    }
+
+    public void start() { server.start(); }
+
+    /**
+     * Stops accepting requests, gives the ones in flight up to a second to finish and releases the port
+     */
+    public void stop()
+    {
+        server.stop(1);
+        pool.shutdown();
+        stopped.countDown();
+    }
+
+    /**
+     * Blocks until stop() is called
+     */
+    public void await() throws InterruptedException { stopped.await(); }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() { return server.getAddress().getPort(); }
+
+    /**
+     * Replaces the clients of one community and swaps in an index of every published community
+     * @param community name of the community, e.g. the input file name
+     * @param clients the community's prospective clients; they are rendered to JSON and not kept
+     */
+    public synchronized void publish(final String community, final List<Owner> clients)
+    {
+        final List<Entry> entries = new ArrayList<>(clients.size());
+        for (final Owner client : clients) entries.add(new Entry(community, client));
+
+        final boolean replaced = communities.put(community, entries) != null;
+        index.set(replaced ? new Index(communities) : new Index(index.get(), entries)); //built outside of any lookup, swapped in at once
+    }
+
+    /**
+     * @return the clients currently served
+     */
+    public int size() { return index.get().clients; }
+
+    /**
+     * One published client: its JSON and the keys it is found by, each key once
+     */
+    private static class Entry
+    {
+        private final String json;
+        private final long[] phones; //PhoneSet codes
+        private final String[] emails; //trimmed and lower case
+        private final int[] pNums; //the client's own and those of its properties
+
+        Entry(final String community, final Owner client)
+        {
+            final Set<String> emails = new LinkedHashSet<>();
+            final Set<Integer> pNums = new LinkedHashSet<>(); //a client owning several properties in a row is listed once
+
+            if (client.getEmail() != null) for (final String email : client.getEmail().split(",")) emails.add(email.trim().toLowerCase(Locale.ROOT));
+
+            pNums.add(client.getpNum());
+            for (final Property property : client.getProperties()) if (property != null) pNums.add(property.getpNum());
+
+            this.json = toJson(community, client);
+            this.phones = new long[client.getPhones().size()];
+            this.emails = emails.toArray(new String[0]);
+            this.pNums = pNums.stream().mapToInt(Integer::intValue).toArray();
+
+            for (int i = 0; i < phones.length; i++) phones[i] = client.getPhones().get(i);
+        }
+    }
+
+    /**
+     * Read-only hash indexes of the clients' JSON
+     */
+    private static class Index
+    {
+        private final Map<Long, List<String>> byPhone; //by PhoneSet code
+        private final Map<String, List<String>> byEmail;
+        private final Map<Integer, List<String>> byPNum;
+        private final int clients;
+        private final int communities;
+        private final Instant loadedAt = Instant.now();
+
+        /**
+         * Indexes the clients of every community
+         * @param communities rendered clients by community, in the order they are listed
+         */
+        Index(final Map<String, List<Entry>> communities)
+        {
+            int count = 0;
+
+            byPhone = new HashMap<>();
+            byEmail = new HashMap<>();
+            byPNum = new HashMap<>();
+            for (final List<Entry> entries : communities.values())
+            {
+                entries.forEach(entry -> add(byPhone, byEmail, byPNum, entry));
+                count += entries.size();
+            }
+            this.clients = count;
+            this.communities = communities.size();
+        }
+
+        /**
+         * Indexes the clients of a new community after those of the previous index, which is left as it is
+         * @param previous the index of the communities published so far
+         * @param entries rendered clients of the new community
+         */
+        Index(final Index previous, final List<Entry> entries)
+        {
+            final Map<Long, List<String>> newPhones = new HashMap<>();
+            final Map<String, List<String>> newEmails = new HashMap<>();
+            final Map<Integer, List<String>> newPNums = new HashMap<>();
+
+            entries.forEach(entry -> add(newPhones, newEmails, newPNums, entry));
+
+            byPhone = append(previous.byPhone, newPhones);
+            byEmail = append(previous.byEmail, newEmails);
+            byPNum = append(previous.byPNum, newPNums);
+            this.clients = previous.clients + entries.size();
+            this.communities = previous.communities + 1;
+        }
+
+        private static void add(final Map<Long, List<String>> byPhone, final Map<String, List<String>> byEmail, final Map<Integer, List<String>> byPNum, final Entry entry)
+        {
+            for (final long phone : entry.phones) byPhone.computeIfAbsent(phone, k -> new ArrayList<>(1)).add(entry.json);
+            for (final String email : entry.emails) byEmail.computeIfAbsent(email, k -> new ArrayList<>(1)).add(entry.json);
+            for (final int pNum : entry.pNums) byPNum.computeIfAbsent(pNum, k -> new ArrayList<>(1)).add(entry.json);
+        }
+
+        /**
+         * @return a copy of the index with the new matches after the old ones; the lists of the index are not changed
+         */
+        private static <K> Map<K, List<String>> append(final Map<K, List<String>> index, final Map<K, List<String>> additions)
+        {
+            final Map<K, List<String>> combined = new HashMap<>(index);
+
+            additions.forEach((key, matches) -> combined.merge(key, matches, (old, added) ->
+            {
+                final List<String> both = new ArrayList<>(old.size() + added.size());
+                both.addAll(old);
+                both.addAll(added);
+                return both;
+            }));
+            return combined;
+        }
+    }
+
+    /**
+     * Runs one query against the current index
+     * @param index the index the request started with
+     * @param field "phone", "email" or "pnum"
+     * @param value the value looked up
+     * @return JSON array of the matching clients
+     * @throws IllegalArgumentException if the field is unknown or the P-NUMBER isn't a number
+     */
+    private String find(final Index index, final String field, final String value)
+    {
+        final List<String> matches = switch (field)
+        {
+            case "phone" -> index.byPhone.get(phoneKey(value));
+            case "email" -> index.byEmail.get(value.trim().toLowerCase(Locale.ROOT));
+            case "pnum" -> index.byPNum.get(Integer.parseInt(value.trim()));
+            default -> throw new IllegalArgumentException("Unknown lookup field " + field + ", use phone, email or pnum");
+        };
+        return matches == null ? "[]" : "[" + String.join(",", matches) + "]";
+    }
+
+    /**
+     * @param value a phone number as typed by the caller
+     * @return the code of the number as it is stored, so "050 123 4567" finds 971501234567
+     */
+    private long phoneKey(final String value)
+    {
+        final long phone = phones.code(value);
+        return phone != PhoneSet.NONE ? phone : PhoneSet.encode(FilterUtils.reformatNumber(value));
+    }
+
+    private void lookup(final HttpExchange exchange) throws IOException
+    {
+        if (!exchange.getRequestMethod().equals("GET")) { respond(exchange, 405, error("Use GET")); return; }
+
+        final Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        if (query.size() != 1) { respond(exchange, 400, error("Give exactly one of phone, email or pnum")); return; }
+
+        final Map.Entry<String, String> entry = query.entrySet().iterator().next();
+        try { respond(exchange, 200, find(index.get(), entry.getKey(), entry.getValue())); }
+        catch (IllegalArgumentException e) { respond(exchange, 400, error(e.getMessage())); }
+    }
+
+    private void batch(final HttpExchange exchange) throws IOException
+    {
+        if (!exchange.getRequestMethod().equals("POST")) { respond(exchange, 405, error("Use POST")); return; }
+
+        final String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        final Index current = index.get(); //every query of the batch sees the same index
+        final var sb = new StringBuilder("{");
+
+        try
+        {
+            for (final String line : body.split("\n"))
+            {
+                final String query = line.strip();
+                final int equals = query.indexOf('=');
+                if (query.isEmpty()) continue;
+                if (equals == -1) throw new IllegalArgumentException("Not a query: " + query);
+
+                if (sb.length() > 1) sb.append(',');
+                sb.append(quote(query)).append(':').append(find(current, query.substring(0, equals).strip(), query.substring(equals + 1)));
+            }
+            respond(exchange, 200, sb.append('}').toString());
+        }
+        catch (IllegalArgumentException e) { respond(exchange, 400, error(e.getMessage())); }
+    }
+
+    private void status(final HttpExchange exchange) throws IOException
+    {
+        final Index current = index.get();
+        respond(exchange, 200, "{\"clients\":" + current.clients + ",\"communities\":" + current.communities + ",\"loadedAt\":" + quote(current.loadedAt.toString()) + "}");
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String json) throws IOException
+    {
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (final OutputStream body = exchange.getResponseBody()) { body.write(bytes); }
+    }
+
+    /**
+     * @param rawQuery the query string of the request URI, still URL-encoded; may be null
+     * @return the parameters in order
+     */
+    private static Map<String, String> parseQuery(final String rawQuery)
+    {
+        final Map<String, String> query = new LinkedHashMap<>();
+        if (rawQuery == null) return query;
+
+        for (final String pair : rawQuery.split("&"))
+        {
+            final int equals = pair.indexOf('=');
+            if (equals > 0) query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    /**
+     * @param community the community the client was published with
+     * @param client a prospective client
+     * @return the client as a JSON object
+     */
+    static String toJson(final String community, final Owner client)
+    {
+        final var sb = new StringBuilder("{\"community\":").append(quote(community))
+                .append(",\"pNum\":").append(client.getpNum())
+                .append(",\"name\":").append(quote(client.getName()))
+                .append(",\"gender\":").append(quote(client.getSex()))
+                .append(",\"email\":").append(quote(client.getEmail()))
+                .append(",\"phones\":[");
+
+        final PhoneSet phones = client.getPhones();
+        for (int i = 0; i < phones.size(); i++) sb.append(i > 0 ? "," : "").append(quote(PhoneSet.decode(phones.get(i)))); //each number decoded once
+        sb.append("],\"properties\":[");
+
+        boolean first = true;
+        for (final Property property : client.getProperties())
+        {
+            if (property == null) continue;
+            if (!first) sb.append(',');
+            first = false;
+
+            sb.append("{\"pNum\":").append(property.getpNum())
+                    .append(",\"project\":").append(quote(property.getName()))
+                    .append(",\"location\":").append(quote(property.getLocation()))
+                    .append(",\"bedrooms\":").append(quote(property.getBedrooms()))
+                    .append(",\"size\":").append(property.getSize()).append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static String error(final String message) { return "{\"error\":" + quote(message) + "}"; }
+
+    /**
+     * @param value text, may be null
+     * @return the text as a JSON string literal, or null
+     */
+    static String quote(final String value)
+    {
+        if (value == null) return "null";
+
+        final var sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c == '\n') sb.append("\\n");
+            else if (c == '\r') sb.append("\\r");
+            else if (c == '\t') sb.append("\\t");
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,312 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds owners whose names are spelling variants of each other, like "Mohammed Ali" and "Mohamed Ali" or "Ali Mohamed",
+ * without comparing every pair of owners.
+ *
+ * Each name is reduced to blocking keys: every word becomes a consonant skeleton that spelling variants of the word
+ * share (Mohammed, Mohamed and Muhammad are all MHMD), the skeletons are sorted so the order of the words doesn't
+ * matter, and the name gets one key for all of its skeletons and one for each way of leaving a word out, so a name
+ * whose skeleton differs in one word ("John Smith", "Jon Smith") still shares a key. Only names that share a key are
+ * compared. Inside a block the names are sorted and each is compared with the next few only (a sorted neighbourhood),
+ * so a block of a very common name costs the same per owner as a small one and the whole stage stays linear in the
+ * number of owners.
+ *
+ * Two names match when every word of each has a close word in the other (a Jaro-Winkler score of at least 0.85, so
+ * Ahmed is not a variant of Mohammed), and the similarity is then the smaller of the two average best Jaro-Winkler
+ * scores of their words, between 0 and 1.
+ */
+public class NameMatcher
+{
+    private static final int MAX_PARTIAL_KEYS = 6; //names with more words are only blocked on all of them
+    private static final int DEFAULT_WINDOW = 16;
+    private static final double CLOSE_WORD = 0.85; //lowest Jaro-Winkler score of two words that can be spelling variants
+
+    private final double threshold;
+    private final int window;
+
+    /**
+     * @param threshold similarity from which two names are the same person, e.g. 0.9
+     */
+    public NameMatcher(final double threshold) { this(threshold, DEFAULT_WINDOW); }
+
+    /**
+     * @param threshold similarity from which two names are the same person, e.g. 0.9
+     * @param window number of following names in a sorted block each name is compared with
+     */
+    public NameMatcher(final double threshold, final int window)
+    {
+        if (threshold <= 0 || threshold > 1) throw new IllegalArgumentException("The threshold must be in (0, 1], was " + threshold);
+        if (window < 1) throw new IllegalArgumentException("The window must be positive, was " + window);
+
+        this.threshold = threshold;
+        this.window = window;
+    }
+
+    public double getThreshold() { return threshold; }
+
+    /**
+     * Unions every pair of owners with matching names that share a blocking key
+     * @param owners the owners, identified by their position in the list
+     * @param clusters disjoint sets over the owners' positions
+     */
+    public void link(final List<Owner> owners, final UnionFind clusters)
+    {
+        final var vocabulary = new Vocabulary();
+        final int[][] words = new int[owners.size()][]; //owner -> words of the name
+        final String[] sortKeys = new String[owners.size()]; //owner -> words in alphabetical order, used to sort the blocks
+        final Map<String, List<Integer>> blocks = new HashMap<>();
+
+        for (int i = 0; i < owners.size(); i++)
+        {
+            final String[] name = words(owners.get(i).getName());
+            words[i] = vocabulary.ids(name);
+            if (name.length == 0) continue;
+
+            final String[] sorted = name.clone();
+            Arrays.sort(sorted);
+            sortKeys[i] = String.join(" ", sorted);
+
+            for (final String key : blockingKeys(name)) blocks.computeIfAbsent(key, k -> new ArrayList<>(2)).add(i);
+        }
+
+        for (final List<Integer> block : blocks.values())
+        {
+            if (block.size() < 2) continue;
+            block.sort(Comparator.comparing((Integer id) -> sortKeys[id]));
+
+            for (int i = 0; i < block.size(); i++)
+            {
+                final int a = block.get(i);
+
+                for (int j = i + 1; j < block.size() && j <= i + window; j++)
+                {
+                    final int b = block.get(j);
+                    if (clusters.find(a) == clusters.find(b)) continue; //already linked, pairs meet again in other blocks
+
+                    if (sortKeys[a].equals(sortKeys[b]) || vocabulary.similarity(words[a], words[b]) >= threshold) clusters.union(a, b);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param a a name
+     * @param b a name
+     * @return true if the names are spelling variants of each other
+     */
+    public boolean matches(final String a, final String b)
+    {
+        final var vocabulary = new Vocabulary();
+        return vocabulary.similarity(vocabulary.ids(words(a)), vocabulary.ids(words(b))) >= threshold;
+    }
+
+    /**
+     * @param name an owner's name, may be null
+     * @return the name's words in upper case, split at anything that isn't a letter or a digit
+     */
+    static String[] words(final String name)
+    {
+        if (name == null) return new String[0];
+
+        final List<String> words = new ArrayList<>(4);
+        for (final String word : name.toUpperCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) if (!word.isEmpty()) words.add(word);
+
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * @param words the words of a name
+     * @return the skeletons of all the words, and for names of up to MAX_PARTIAL_KEYS words the skeletons of all the
+     *         words but one, for each word
+     */
+    static List<String> blockingKeys(final String[] words)
+    {
+        final String[] skeletons = new String[words.length];
+        for (int i = 0; i < words.length; i++) skeletons[i] = skeleton(words[i]);
+        Arrays.sort(skeletons);
+
+        final List<String> keys = new ArrayList<>();
+        keys.add(String.join(" ", skeletons));
+
+        if (skeletons.length > 1 && skeletons.length <= MAX_PARTIAL_KEYS)
+        {
+            for (int skip = 0; skip < skeletons.length; skip++)
+            {
+                if (skip > 0 && skeletons[skip].equals(skeletons[skip - 1])) continue; //same key as leaving out the previous word
+
+                final var key = new StringBuilder("-"); //kept apart from the full keys of shorter names
+                for (int i = 0; i < skeletons.length; i++) if (i != skip) key.append(' ').append(skeletons[i]);
+                keys.add(key.toString());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Reduces a word to the consonants that its transliterations agree on: the first letter is kept (any vowel as A), the
+     * other vowels and a final H are dropped, letters that sound alike share one code and repeated codes are collapsed.
+     * Digits are kept as they are
+     * @param word a word in upper case
+     * @return the word's skeleton, e.g. MHMD for Mohammed
+     */
+    static String skeleton(final String word)
+    {
+        final var sb = new StringBuilder(word.length());
+        char last = 0;
+
+        for (int i = 0; i < word.length(); i++)
+        {
+            final char c = code(word.charAt(i));
+
+            if (i == 0) sb.append(c == 0 ? 'A' : c);
+            else if (c != 0 && c != last && !(c == 'H' && i == word.length() - 1)) sb.append(c);
+
+            last = c == 0 && i > 0 ? last : c; //a vowel between two alike consonants doesn't separate them
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the code of a letter, 0 for vowels
+     */
+    private static char code(final char c)
+    {
+        return switch (c)
+        {
+            case 'A', 'E', 'I', 'O', 'U', 'Y', 'W' -> 0;
+            case 'P', 'F', 'V' -> 'B';
+            case 'C', 'Q', 'G' -> 'K';
+            case 'Z', 'X' -> 'S';
+            case 'T' -> 'D';
+            default -> c;
+        };
+    }
+
+    private static boolean hasDigit(final String word)
+    {
+        for (int i = 0; i < word.length(); i++) if (Character.isDigit(word.charAt(i))) return true;
+        return false;
+    }
+
+    /**
+     * Numbers the words of the names being compared and remembers the Jaro-Winkler score of every pair of words scored
+     * so far. Names are made of a few thousand common words, so candidate pairs mostly share words or repeat word pairs
+     * that were already scored
+     */
+    private static class Vocabulary
+    {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> words = new ArrayList<>();
+        private final Map<Long, Double> scores = new HashMap<>(); //pair number -> score
+
+        /**
+         * @param name words of a name
+         * @return the number of each word
+         */
+        int[] ids(final String[] name)
+        {
+            final int[] result = new int[name.length];
+
+            for (int i = 0; i < name.length; i++)
+            {
+                result[i] = ids.computeIfAbsent(name[i], word -> words.size());
+                if (result[i] == words.size()) words.add(name[i]);
+            }
+            return result;
+        }
+
+        /**
+         * @param a word numbers of a name
+         * @param b word numbers of a name
+         * @return the smaller of the average best Jaro-Winkler score of a's words in b and of b's words in a, or 0 if a
+         *         word has no close word in the other name
+         */
+        double similarity(final int[] a, final int[] b)
+        {
+            if (a.length == 0 || b.length == 0) return 0;
+            return Math.min(bestMatches(a, b), bestMatches(b, a));
+        }
+
+        private double bestMatches(final int[] from, final int[] to)
+        {
+            double total = 0;
+
+            for (final int word : from)
+            {
+                double best = 0;
+                for (int i = 0; i < to.length && best < 1; i++) best = Math.max(best, score(word, to[i]));
+
+                if (best < CLOSE_WORD) return 0;
+                total += best;
+            }
+            return total / from.length;
+        }
+
+        private double score(final int a, final int b)
+        {
+            if (a == b) return 1;
+
+            final long high = Math.max(a, b);
+            final long key = high * (high - 1) / 2 + Math.min(a, b); //numbers the pairs densely, so the keys hash apart
+            final Double known = scores.get(key);
+            if (known != null) return known;
+
+            final double score = jaroWinkler(words.get(a), words.get(b));
+            scores.put(key, score);
+            return score;
+        }
+    }
+
+    /**
+     * @return the Jaro-Winkler similarity of two words, 1 if they are equal and 0 if they have nothing in common. Words
+     *         with digits, like a unit or a generation number, are not spelled differently, so they only match themselves
+     */
+    static double jaroWinkler(final String a, final String b)
+    {
+        if (a.equals(b)) return 1;
+        if (hasDigit(a) || hasDigit(b)) return 0;
+
+        if (a.length() > 64 || b.length() > 64) return 0; //not a name
+
+        final int range = Math.max(0, Math.max(a.length(), b.length()) / 2 - 1);
+        long matchedA = 0, matchedB = 0; //bit i is set when character i has a match
+        int matches = 0;
+
+        for (int i = 0; i < a.length(); i++)
+        {
+            for (int j = Math.max(0, i - range); j < Math.min(b.length(), i + range + 1); j++)
+            {
+                if ((matchedB & 1L << j) != 0 || a.charAt(i) != b.charAt(j)) continue;
+
+                matchedA |= 1L << i;
+                matchedB |= 1L << j;
+                matches++;
+                break;
+            }
+        }
+        if (matches == 0) return 0;
+
+        int transpositions = 0;
+        for (int i = 0, j = 0; i < a.length(); i++)
+        {
+            if ((matchedA & 1L << i) == 0) continue;
+            while ((matchedB & 1L << j) == 0) j++;
+            if (a.charAt(i) != b.charAt(j++)) transpositions++;
+        }
+
+        final double m = matches;
+        final double jaro = (m / a.length() + m / b.length() + (m - transpositions / 2.0) / m) / 3;
+
+        int prefix = 0;
+        while (prefix < Math.min(4, Math.min(a.length(), b.length())) && a.charAt(prefix) == b.charAt(prefix)) prefix++;
+
+        return jaro + prefix * 0.1 * (1 - jaro);
+    }
+}
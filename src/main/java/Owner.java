@@ -11,25 +11,25 @@ public class Owner
         private String sex;
         private int pNum; //the primary key in both lists (property number)
 
-        //list of properties owned
-        private final List<Property> properties = new ArrayList<>()
-        {
-            @Serial
-            private static final long serialVersionUID = 1L;
+        //list of properties owned, most owners have a single one
+        private final List<Property> properties = new BracketlessList<>(1);
 
-            @Override
-            public String toString() { return super.toString().substring(1,super.toString().length()-1) ; } //this removes the brackets from the arraylist toString() method
-        };
+        //phone numbers provided, at most one per phone column, stored as PhoneSet codes
+        private final PhoneSet phoneNums = new PhoneSet();
 
-        //list of phone numbers provided
-        private final List<String> phoneNums = new ArrayList<>()
+        /**
+         * An ArrayList sized for the few elements an owner has, shared by both lists instead of one anonymous class each
+         */
+        private static class BracketlessList<E> extends ArrayList<E>
         {
             @Serial
             private static final long serialVersionUID = 1L;
 
+            BracketlessList(final int initialCapacity) { super(initialCapacity); }
+
             @Override
             public String toString() { return super.toString().substring(1,super.toString().length()-1) ; } //this removes the brackets from the arraylist toString() method
-        };
+        }
 
         //accessors
         public String getName() { return name; }
@@ -37,7 +37,8 @@ public class Owner
         public String getSex() { return sex; }
         public int getpNum() { return pNum; }
         public List<Property> getProperties() { return properties; }
-        public List<String> getPhoneNums() { return phoneNums; }
+        public PhoneSet getPhones() { return phoneNums; }
+        public List<String> getPhoneNums() { return phoneNums.toList(); } //decoded on every call, for the exporters
 
         //mutators
         public void setName(final String name) { this.name = name; }
@@ -46,7 +47,7 @@ public class Owner
         public void setpNum(final int pNum) { this.pNum = pNum; }
         public void addProperty(final Property property) { properties.add(property); }
         public void addProperty(final List<Property> list) { list.forEach(this::addProperty); }
-        public void addPhoneNums(final String phoneNum) { phoneNums.add(phoneNum); }
+        public void addPhone(final long code) { phoneNums.add(code); }
 
 
         @Override
@@ -56,7 +57,7 @@ public class Owner
             getProperties().stream().filter(Objects::nonNull).forEach(property -> sb.append("- ").append(property).append("\n"));
 
             return String.format("Name: %s -%s \ne-Mail: %s \n", getName(), getSex(), getEmail())
-                    .concat("Phone Numbers: " + getPhoneNums().toString() + "\nProperties: \n" + sb);
+                    .concat("Phone Numbers: " + getPhones().toString() + "\nProperties: \n" + sb);
         }
 }
 
@@ -0,0 +1,380 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Persistent count of the properties every owner holds in each community, so an owner with one unit in Town Square and
+ * one in DAMAC Hills is an investor in both runs instead of a homeowner twice. Owners are identified by their phone
+ * numbers and emails; each FileSorter run replaces the counts of its community with those of its clients, and an owner's
+ * portfolio is the largest number of properties recorded under any one of its phone numbers or emails, over all
+ * communities.
+ *
+ * The index is an open-addressing hash table in a memory-mapped file. Every slot holds a key (a PhoneSet code, or a
+ * 64-bit hash of a normalized email with the top bit set), the hash of a community and the number of properties the
+ * key's owner has there. The slots of a key follow each other from the slot the key hashes to, and the table is kept at
+ * most half full, so looking a key up reads one run of a few adjacent slots, which is one page and rarely two,
+ * whatever the size of the index. The file grows by rehashing into a file twice the size, which also drops the slots of
+ * owners that no community counts anymore.
+ *
+ * Layout: MAGIC, VERSION, capacity (int, a power of two), used slots (int), padding up to HEADER bytes, then capacity
+ * slots of key (long, 0 for an empty slot), community (long) and count (int), SLOT bytes each. A mapping is limited to
+ * 2 GB, which is about 30 million phone numbers and emails.
+ *
+ * Next to the index, a directory named after it with ".keys" appended holds one file per community listing the keys its
+ * last run counted (an int count, then the distinct keys as longs). A new run of the community only resets those keys,
+ * so an update costs as much as the community's clients, not the whole index.
+ *
+ * The file is locked while it is open, so a second process fails to open it instead of corrupting it; within a process
+ * the index is shared, e.g. by the runs of a BatchRunner.
+ */
+public class OwnerIndex implements Closeable
+{
+    private static final int MAGIC = 0x44464F49; //"DFOI"
+    private static final int VERSION = 2; //1 had no key lists
+    private static final int HEADER = 64;
+    private static final int SLOT = 24; //key, community, count, 4 bytes of padding
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final int MAX_CAPACITY = Integer.highestOneBit((Integer.MAX_VALUE - HEADER) / SLOT);
+
+    private final Path file;
+    private final Path keyDir; //key list of every community
+    private FileChannel channel;
+    private FileLock lock;
+    private MappedByteBuffer slots;
+    private int capacity;
+    private int used; //slots that hold a key, including the ones whose count went back to 0
+
+    private OwnerIndex(final Path file)
+    {
+        this.file = file;
+        this.keyDir = file.resolveSibling(file.getFileName() + ".keys");
+    }
+
+    /**
+     * Opens the index, or creates an empty one
+     * @param file index location
+     * @return the open index
+     * @throws IOException if the file can't be created or mapped, isn't an owner index, or is open in another process
+     */
+    public static OwnerIndex open(final Path file) throws IOException
+    {
+        final var index = new OwnerIndex(file);
+
+        if (Files.exists(file)) index.map();
+        else
+        {
+            create(file, INITIAL_CAPACITY);
+            index.map();
+        }
+        return index;
+    }
+
+    /**
+     * Replaces the counts of a community with the property counts of its clients
+     * @param community name of the community, e.g. the input file name
+     * @param clients the community's prospective clients
+     * @throws IOException if the community's key list can't be read or written, or the index has to grow and the
+     *                     larger file can't be written
+     */
+    public synchronized void update(final String community, final List<Owner> clients) throws IOException
+    {
+        final long communityKey = hash(community);
+        final Path keyFile = keyDir.resolve(Long.toHexString(communityKey) + ".bin");
+        final long[] previous = readKeys(keyFile);
+        final long[] current = distinctKeys(clients);
+
+        writeKeys(keyFile, union(previous, current)); //a run cut short still leaves every key it may have counted listed
+
+        for (final long key : previous) reset(key, communityKey); //forget the previous run
+
+        for (final Owner client : clients)
+        {
+            final int owned = client.getProperties().size();
+            for (final long key : keys(client)) add(key, communityKey, owned);
+        }
+
+        slots.putInt(12, used);
+        slots.force();
+        writeKeys(keyFile, current);
+    }
+
+    /**
+     * @param client a prospective client
+     * @return the most properties recorded under any of the client's phone numbers and emails, over every community;
+     *         0 if none of them is indexed
+     */
+    public synchronized int portfolio(final Owner client)
+    {
+        int portfolio = 0;
+        for (final long key : keys(client)) portfolio = Math.max(portfolio, count(key));
+        return portfolio;
+    }
+
+    /**
+     * @param key a phone number code or email key
+     * @return the properties recorded under the key, over every community
+     */
+    private int count(final long key)
+    {
+        int total = 0;
+        for (int slot = home(key); key(slot) != 0; slot = (slot + 1) & (capacity - 1)) if (key(slot) == key) total += count(slot);
+        return total;
+    }
+
+    /**
+     * Sets the count of a key in a community back to 0, if the key is still counted there
+     */
+    private void reset(final long key, final long community)
+    {
+        for (int slot = home(key); key(slot) != 0; slot = (slot + 1) & (capacity - 1))
+        {
+            if (key(slot) == key && community(slot) == community)
+            {
+                setCount(slot, 0);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds properties to the count of a key in a community, taking a new slot if the key isn't counted there yet
+     */
+    private void add(final long key, final long community, final int owned) throws IOException
+    {
+        int free = -1; //first slot on the way whose count went back to 0, reused before an empty slot
+        int slot = home(key);
+
+        for (; key(slot) != 0; slot = (slot + 1) & (capacity - 1))
+        {
+            if (key(slot) == key && community(slot) == community)
+            {
+                setCount(slot, count(slot) + owned);
+                return;
+            }
+            if (free == -1 && count(slot) == 0) free = slot;
+        }
+
+        if (free != -1) slot = free; //still on the key's run, so lookups keep finding it
+        else if ((used + 1) * 2L > capacity)
+        {
+            grow();
+            add(key, community, owned);
+            return;
+        }
+        else used++;
+
+        slots.putLong(offset(slot), key);
+        slots.putLong(offset(slot) + 8, community);
+        setCount(slot, owned);
+    }
+
+    /**
+     * Rehashes the slots that still count something into a file of twice the capacity, and swaps it in
+     */
+    private void grow() throws IOException
+    {
+        if (capacity == MAX_CAPACITY) throw new IOException("The owner index is full: " + file);
+
+        final Path grown = file.resolveSibling(file.getFileName() + ".tmp");
+        create(grown, capacity * 2);
+
+        try (final FileChannel target = FileChannel.open(grown, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            final int grownCapacity = capacity * 2;
+            final MappedByteBuffer grownSlots = target.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) grownCapacity * SLOT);
+            int grownUsed = 0;
+
+            for (int slot = 0; slot < capacity; slot++)
+            {
+                if (key(slot) == 0 || count(slot) == 0) continue;
+
+                int to = home(key(slot), grownCapacity);
+                while (grownSlots.getLong(offset(to)) != 0) to = (to + 1) & (grownCapacity - 1);
+
+                grownSlots.putLong(offset(to), key(slot));
+                grownSlots.putLong(offset(to) + 8, community(slot));
+                grownSlots.putInt(offset(to) + 16, count(slot));
+                grownUsed++;
+            }
+            grownSlots.putInt(12, grownUsed);
+            grownSlots.force();
+        }
+
+        close();
+        Files.move(grown, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map();
+    }
+
+    /**
+     * Writes an empty index file
+     */
+    private static void create(final Path file, final int capacity) throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * SLOT); //sizes the file, zeroed
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, capacity);
+            header.putInt(12, 0);
+            header.force();
+        }
+    }
+
+    /**
+     * Locks and maps the index file
+     */
+    private void map() throws IOException
+    {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try
+        {
+            lock = channel.tryLock();
+            if (lock == null) throw new IOException("The owner index is open in another process: " + file);
+            if (channel.size() < HEADER) throw new IOException("Not an owner index: " + file);
+
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) throw new IOException("Not an owner index of version " + VERSION + ": " + file);
+
+            capacity = header.getInt(8);
+            if (Integer.bitCount(capacity) != 1 || channel.size() < HEADER + (long) capacity * SLOT) throw new IOException("Truncated owner index: " + file);
+
+            slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * SLOT);
+            used = slots.getInt(12);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close(); //releases the lock too
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the mapped slots back and unlocks the file
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (channel == null) return;
+
+        slots.force();
+        channel.close(); //the mapping stays valid until it is collected, but isn't used anymore
+        channel = null;
+    }
+
+    /**
+     * @param client a prospective client
+     * @return the keys of the client's phone numbers and emails
+     */
+    static List<Long> keys(final Owner client)
+    {
+        final List<Long> keys = new ArrayList<>(client.getPhones().size() + 1);
+        client.getPhones().forEach(keys::add); //PhoneSet codes are positive
+
+        if (client.getEmail() != null)
+        {
+            for (final String eMail : client.getEmail().split(", ")) //merged clients list all their owners' emails
+            {
+                final String normalized = IdentityResolver.normalizeEmail(eMail);
+                if (!normalized.isEmpty()) keys.add(hash(normalized) | Long.MIN_VALUE); //negative, apart from the phone numbers
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the keys of every client, sorted and without repeats
+     */
+    private static long[] distinctKeys(final List<Owner> clients)
+    {
+        return clients.stream().flatMap(client -> keys(client).stream()).mapToLong(Long::longValue).sorted().distinct().toArray();
+    }
+
+    /**
+     * @return the keys of both sorted arrays, sorted and without repeats
+     */
+    private static long[] union(final long[] a, final long[] b)
+    {
+        final long[] both = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, both, a.length, b.length);
+        Arrays.sort(both);
+        return Arrays.stream(both).distinct().toArray();
+    }
+
+    /**
+     * @return the keys in a community's key list, none if the community hasn't been counted yet
+     */
+    private static long[] readKeys(final Path keyFile) throws IOException
+    {
+        if (!Files.exists(keyFile)) return new long[0];
+
+        try (final var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(keyFile))))
+        {
+            final long[] keys = new long[in.readInt()];
+            for (int i = 0; i < keys.length; i++) keys[i] = in.readLong();
+            return keys;
+        }
+    }
+
+    /**
+     * Replaces a community's key list through a temporary file, so a crash leaves either the old list or the new one
+     */
+    private void writeKeys(final Path keyFile, final long[] keys) throws IOException
+    {
+        Files.createDirectories(keyDir);
+        final Path written = keyFile.resolveSibling(keyFile.getFileName() + ".tmp");
+
+        try (final var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(written))))
+        {
+            out.writeInt(keys.length);
+            for (final long key : keys) out.writeLong(key);
+        }
+        Files.move(written, keyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the 64-bit FNV-1a hash of the text, never 0
+     */
+    private static long hash(final String text)
+    {
+        long hash = 0xCBF29CE484222325L;
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private int home(final long key) { return home(key, capacity); }
+
+    /**
+     * @return the slot a key hashes to in a table of the given capacity
+     */
+    private static int home(final long key, final int capacity) { return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (capacity - 1); }
+
+    private static int offset(final int slot) { return HEADER + slot * SLOT; }
+
+    private long key(final int slot) { return slots.getLong(offset(slot)); }
+
+    private long community(final int slot) { return slots.getLong(offset(slot) + 8); }
+
+    private int count(final int slot) { return slots.getInt(offset(slot) + 16); }
+
+    private void setCount(final int slot, final int count) { slots.putInt(offset(slot) + 16, count); }
+}
@@ -0,0 +1,144 @@
+import com.google.i18n.phonenumbers.NumberParseException;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberType;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Validates and normalizes phone numbers with Google's libphonenumber, remembering the result for the most recently
+ * seen cell texts.
+ *
+ * A cell is first parsed as written, relative to the home region, so "+44 7700 900123", "00971 50 123 4567" and
+ * "050-1234567" all resolve. Registry exports often drop the '+' of international numbers, so a cell that doesn't parse
+ * into a valid number is tried again as the digits FilterUtils.reformatNumber leaves, with a '+' in front. Valid numbers
+ * are returned in E.164 form without the '+', the form they have always been stored in ("971501234567"), or as the
+ * PhoneSet code of that form. Landlines of the home region are rejected, like the Dubai landlines
+ * FilterUtils.isValidNumber turns away.
+ *
+ * libphonenumber costs microseconds per number, while the same numbers show up again and again across the phone columns
+ * and the sheets, so results are cached in a bounded LRU map keyed on the raw cell text. The map is split into segments
+ * that each have their own lock, so the sheets parsed at the same time rarely wait on each other.
+ */
+public class PhoneNormalizer
+{
+    private static final PhoneNumberUtil PHONE_UTIL = PhoneNumberUtil.getInstance();
+    private static final Long INVALID = PhoneSet.NONE; //cached result of a cell without a valid number
+    private static final int SEGMENTS = 16; //power of two
+
+    private final String region;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * One lock and one access-ordered map per segment; the eldest entry is evicted once the segment is full
+     */
+    private static class Segment extends LinkedHashMap<String, Long>
+    {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        Segment(final int capacity)
+        {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) { return size() > capacity; }
+    }
+
+    /**
+     * @param region home region of numbers written without a country code, as an ISO 3166 code like "AE"
+     * @param capacity the most cell texts remembered
+     */
+    public PhoneNormalizer(final String region, final int capacity)
+    {
+        if (!PHONE_UTIL.getSupportedRegions().contains(region)) throw new IllegalArgumentException("Unknown region " + region);
+
+        this.region = region;
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(Math.max(1, capacity / SEGMENTS));
+    }
+
+    /**
+     * @param raw cell text of a phone column
+     * @return the number in E.164 form without the '+', or null if the text isn't a valid number
+     */
+    public String normalize(final String raw)
+    {
+        final long code = code(raw);
+        return code == PhoneSet.NONE ? null : PhoneSet.decode(code);
+    }
+
+    /**
+     * @param raw cell text of a phone column
+     * @return the PhoneSet code of the number in E.164 form without the '+', or PhoneSet.NONE if the text isn't a
+     *         valid number
+     */
+    public long code(final String raw)
+    {
+        final Segment segment = segments[spread(raw.hashCode()) & (SEGMENTS - 1)];
+        Long result;
+
+        synchronized (segment) { result = segment.get(raw); }
+
+        if (result != null) hits.increment();
+        else
+        {
+            misses.increment();
+            result = parse(raw);
+            synchronized (segment) { segment.put(raw, result); } //racing threads compute the same value
+        }
+        return result;
+    }
+
+    /**
+     * Runs libphonenumber over a cell text
+     * @param raw cell text
+     * @return the code of the normalized number, or INVALID
+     */
+    private Long parse(final String raw)
+    {
+        PhoneNumber number = tryParse(raw, region);
+        if (number == null) number = tryParse("+" + FilterUtils.reformatNumber(raw), region); //international digits without the '+'
+
+        if (number == null) return INVALID;
+        return PhoneSet.encode(PHONE_UTIL.format(number, PhoneNumberFormat.E164).substring(1));
+    }
+
+    /**
+     * @return the number if it parses into a valid number that isn't a landline of the home region, else null
+     */
+    private PhoneNumber tryParse(final String text, final String defaultRegion)
+    {
+        try
+        {
+            final PhoneNumber number = PHONE_UTIL.parse(text, defaultRegion);
+            if (!PHONE_UTIL.isValidNumber(number)) return null;
+
+            final boolean home = region.equals(PHONE_UTIL.getRegionCodeForNumber(number));
+            return home && PHONE_UTIL.getNumberType(number) == PhoneNumberType.FIXED_LINE ? null : number;
+        }
+        catch (NumberParseException e) { return null; }
+    }
+
+    /**
+     * @return the share of normalize calls answered from the cache so far
+     */
+    public double hitRate()
+    {
+        final long hit = hits.sum();
+        final long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * Spreads the high bits of a hash code into the low bits used to pick a segment, like HashMap does
+     */
+    private static int spread(final int hash) { return hash ^ (hash >>> 16); }
+}
@@ -0,0 +1,184 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Insertion-ordered set of phone numbers stored as primitive longs, so an owner's numbers take one small array instead
+ * of a list of Strings, and membership tests compare longs instead of Strings.
+ *
+ * A number of up to 18 digits is encoded as 10^length + the number, which keeps leading zeros apart ("0501" and "501"
+ * get different codes) and leaves 0 free to mean "no number". Numbers are turned back into text only when they are
+ * written out.
+ *
+ * Most owners have one to three numbers, which are scanned linearly; a set that grows past LINEAR_MAX numbers, like the
+ * numbers of a merged client, also gets an open-addressing hash table of the positions of its numbers.
+ */
+public class PhoneSet
+{
+    public static final long NONE = 0; //code of a text that isn't a number
+
+    private static final int MAX_DIGITS = 18; //10^18 + an 18-digit number still fits a long
+    private static final int LINEAR_MAX = 8; //sets up to this size are scanned instead of hashed
+    private static final long[] EMPTY = new long[0];
+    private static final long[] POWERS = new long[MAX_DIGITS + 1]; //10^i
+
+    static
+    {
+        POWERS[0] = 1;
+        for (int i = 1; i <= MAX_DIGITS; i++) POWERS[i] = POWERS[i - 1] * 10;
+    }
+
+    private long[] codes = EMPTY; //in insertion order
+    private int size;
+    private int[] table; //hash slot -> position in codes + 1, 0 for an empty slot; null while the set is small
+
+    /**
+     * @param digits a phone number as digits only, e.g. "971501234567"
+     * @return the number's code, or NONE if the text is empty, longer than 18 characters or not all digits
+     */
+    public static long encode(final CharSequence digits)
+    {
+        final int length = digits.length();
+        if (length == 0 || length > MAX_DIGITS) return NONE;
+
+        long value = 0;
+        for (int i = 0; i < length; i++)
+        {
+            final char c = digits.charAt(i);
+            if (c < '0' || c > '9') return NONE;
+            value = value * 10 + (c - '0');
+        }
+        return POWERS[length] + value;
+    }
+
+    /**
+     * @param code a code returned by encode
+     * @return the number as text, with its leading zeros
+     */
+    public static String decode(final long code)
+    {
+        int length = MAX_DIGITS;
+        while (POWERS[length] > code) length--;
+
+        final char[] digits = new char[length];
+        long value = code - POWERS[length];
+
+        for (int i = length - 1; i >= 0; i--)
+        {
+            digits[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(digits);
+    }
+
+    /**
+     * @param code a number's code
+     * @return true if the number was added, false if it was already in the set
+     */
+    public boolean add(final long code)
+    {
+        if (code == NONE) throw new IllegalArgumentException("Not a phone number code");
+        if (contains(code)) return false;
+
+        if (size == codes.length) codes = Arrays.copyOf(codes, Math.max(2, size * 2));
+        codes[size++] = code;
+
+        if (table != null && size * 2 > table.length) rehash(); //keep the table at most half full
+        else if (table != null) insert(size - 1);
+        else if (size > LINEAR_MAX) rehash();
+
+        return true;
+    }
+
+    /**
+     * Adds every number of another set, in its order
+     * @param other a set of numbers
+     */
+    public void addAll(final PhoneSet other)
+    {
+        for (int i = 0; i < other.size; i++) add(other.codes[i]);
+    }
+
+    /**
+     * @param code a number's code
+     * @return true if the number is in the set
+     */
+    public boolean contains(final long code)
+    {
+        if (table == null)
+        {
+            for (int i = 0; i < size; i++) if (codes[i] == code) return true;
+            return false;
+        }
+
+        final int mask = table.length - 1;
+        for (int slot = hash(code) & mask; table[slot] != 0; slot = (slot + 1) & mask) if (codes[table[slot] - 1] == code) return true;
+        return false;
+    }
+
+    /**
+     * @param index position in insertion order
+     * @return the code of the number at that position
+     */
+    public long get(final int index)
+    {
+        if (index >= size) throw new IndexOutOfBoundsException(index);
+        return codes[index];
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    /**
+     * @param action receives the code of every number, in insertion order
+     */
+    public void forEach(final LongConsumer action)
+    {
+        for (int i = 0; i < size; i++) action.accept(codes[i]);
+    }
+
+    /**
+     * @return the numbers as text, in insertion order
+     */
+    public List<String> toList()
+    {
+        final List<String> numbers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) numbers.add(decode(codes[i]));
+        return numbers;
+    }
+
+    /**
+     * @return the numbers separated by ", ", the way the owner lists have always been printed
+     */
+    @Override
+    public String toString()
+    {
+        final var sb = new StringBuilder(size * 14);
+
+        for (int i = 0; i < size; i++)
+        {
+            if (i > 0) sb.append(", ");
+            sb.append(decode(codes[i]));
+        }
+        return sb.toString();
+    }
+
+    private void rehash()
+    {
+        table = new int[Integer.highestOneBit(size * 4 - 1) << 1]; //at most a quarter full after rehashing
+        for (int i = 0; i < size; i++) insert(i);
+    }
+
+    private void insert(final int position)
+    {
+        final int mask = table.length - 1;
+        int slot = hash(codes[position]) & mask;
+
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = position + 1;
+    }
+
+    private static int hash(final long code) { return (int) ((code * 0x9E3779B97F4A7C15L) >>> 32); }
+}
@@ -0,0 +1,283 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts where the time goes and where the rows go while a FileSorter runs: wall time, allocated bytes, rows in and out
+ * and failures of every stage, and the number of values and owners dropped for each rejection reason.
+ *
+ * The counters are LongAdders, so the threads that parse different sheets at the same time can share one instance.
+ * Every finished stage span is also committed as a JFR event, and publish() commits the running totals, so a flight
+ * recording of a production run shows both the stages and the data quality. report() renders the same numbers as JSON.
+ *
+ * Parse spans cover a whole sheet, including the normalize and qualify work done on its rows; those two are measured
+ * per row, on whichever thread decodes the row, and reported on their own as well. Their time and allocation are
+ * therefore summed over the decoder threads: with pipelined decoding their time is CPU time, which can exceed the wall
+ * time of the parse span around it. Spans measure wall time, and the allocation of the thread running them only.
+ */
+public class PipelineMetrics
+{
+    /**
+     * The stages a row goes through
+     */
+    public enum Stage { PARSE, NORMALIZE, QUALIFY, JOIN, EXPORT }
+
+    /**
+     * Why a value or an owner was dropped
+     */
+    public enum Rejection
+    {
+        CORPORATE_KEYWORD, //owner name matched a rejected-owner rule
+        NO_CONTACT, //owner has neither a valid phone number nor a valid email
+        MISSING_NAME, //owner row without a name
+        INVALID_PHONE, //phone cell that isn't a valid number; the owner may still qualify
+        INVALID_EMAIL, //email cell that isn't a valid address; the owner may still qualify
+        INVALID_AREA //actual area cell that isn't a number; the property is kept without a size
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private final LongAdder[] nanos = adders(Stage.values().length);
+    private final LongAdder[] allocated = adders(Stage.values().length);
+    private final LongAdder[] rowsIn = adders(Stage.values().length);
+    private final LongAdder[] rowsOut = adders(Stage.values().length);
+    private final LongAdder[] errors = adders(Stage.values().length);
+    private final LongAdder[] rejections = adders(Rejection.values().length);
+
+    /**
+     * A running stage on the current thread; close it on the same thread
+     */
+    public class Span implements AutoCloseable
+    {
+        private final Stage stage;
+        private final StageEvent event = new StageEvent();
+        private final long start = System.nanoTime();
+        private final long startAllocated = allocatedBytes();
+        private long in, out;
+
+        private Span(final Stage stage)
+        {
+            this.stage = stage;
+            event.begin();
+        }
+
+        /**
+         * @param in rows that entered the stage
+         * @param out rows that left the stage
+         * @return this span
+         */
+        public Span rows(final long in, final long out)
+        {
+            this.in = in;
+            this.out = out;
+            return this;
+        }
+
+        @Override
+        public void close()
+        {
+            final long elapsed = System.nanoTime() - start;
+            final long bytes = Math.max(0, allocatedBytes() - startAllocated);
+
+            time(stage, elapsed);
+            allocated[stage.ordinal()].add(bytes);
+            PipelineMetrics.this.rows(stage, in, out);
+
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.stage = stage.name();
+                event.rowsIn = in;
+                event.rowsOut = out;
+                event.allocated = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * @param stage the stage that starts on the current thread
+     * @return the running span, to be closed when the stage ends
+     */
+    public Span start(final Stage stage) { return new Span(stage); }
+
+    /**
+     * Adds time measured outside of a span, e.g. per row
+     */
+    public void time(final Stage stage, final long nanos) { this.nanos[stage.ordinal()].add(nanos); }
+
+    /**
+     * Adds bytes allocated outside of a span, e.g. per row
+     */
+    public void allocate(final Stage stage, final long bytes) { allocated[stage.ordinal()].add(bytes); }
+
+    /**
+     * Adds rows counted outside of a span
+     */
+    public void rows(final Stage stage, final long in, final long out)
+    {
+        rowsIn[stage.ordinal()].add(in);
+        rowsOut[stage.ordinal()].add(out);
+    }
+
+    /**
+     * Counts a failure of the stage
+     */
+    public void error(final Stage stage) { errors[stage.ordinal()].increment(); }
+
+    /**
+     * Counts a dropped value or owner
+     */
+    public void reject(final Rejection reason) { rejections[reason.ordinal()].increment(); }
+
+    /**
+     * Counts values or owners dropped elsewhere, e.g. in a worker process
+     */
+    public void reject(final Rejection reason, final long count) { rejections[reason.ordinal()].add(count); }
+
+    public long getRows(final Stage stage, final boolean out) { return (out ? rowsOut : rowsIn)[stage.ordinal()].sum(); }
+    public long getNanos(final Stage stage) { return nanos[stage.ordinal()].sum(); }
+    public long getAllocated(final Stage stage) { return allocated[stage.ordinal()].sum(); }
+    public long getErrors(final Stage stage) { return errors[stage.ordinal()].sum(); }
+    public long getRejections(final Rejection reason) { return rejections[reason.ordinal()].sum(); }
+
+    /**
+     * Commits the running totals of every stage and rejection reason as JFR events
+     */
+    public void publish()
+    {
+        for (final Stage stage : Stage.values())
+        {
+            final var event = new StageTotalEvent();
+            if (!event.shouldCommit()) break;
+
+            event.stage = stage.name();
+            event.nanos = getNanos(stage);
+            event.allocated = getAllocated(stage);
+            event.rowsIn = getRows(stage, false);
+            event.rowsOut = getRows(stage, true);
+            event.errors = getErrors(stage);
+            event.commit();
+        }
+        for (final Rejection reason : Rejection.values())
+        {
+            final var event = new RejectionTotalEvent();
+            if (!event.shouldCommit()) break;
+
+            event.reason = reason.name();
+            event.count = getRejections(reason);
+            event.commit();
+        }
+    }
+
+    /**
+     * @return the totals as a JSON object with a "stages" and a "rejections" member
+     */
+    public String report()
+    {
+        final var sb = new StringBuilder("{\n  \"stages\": {\n");
+
+        for (final Stage stage : Stage.values())
+        {
+            final int i = stage.ordinal();
+            sb.append(String.format(Locale.ROOT, "    \"%s\": {\"millis\": %.3f, \"allocatedBytes\": %d, \"rowsIn\": %d, \"rowsOut\": %d, \"errors\": %d}",
+                    key(stage), nanos[i].sum() / 1e6, allocated[i].sum(), rowsIn[i].sum(), rowsOut[i].sum(), errors[i].sum()));
+            sb.append(i < Stage.values().length - 1 ? ",\n" : "\n");
+        }
+        sb.append("  },\n  \"rejections\": {\n");
+
+        for (final Rejection reason : Rejection.values())
+        {
+            sb.append("    \"").append(key(reason)).append("\": ").append(getRejections(reason));
+            sb.append(reason.ordinal() < Rejection.values().length - 1 ? ",\n" : "\n");
+        }
+        return sb.append("  }\n}\n").toString();
+    }
+
+    /**
+     * Writes report() to a file
+     * @param reportFile the JSON file
+     * @throws IOException if the file can't be written
+     */
+    public void writeReport(final Path reportFile) throws IOException { Files.writeString(reportFile, report()); }
+
+    /**
+     * @return CORPORATE_KEYWORD as "corporate_keyword"
+     */
+    private static String key(final Enum<?> constant) { return constant.name().toLowerCase(Locale.ROOT); }
+
+    private static LongAdder[] adders(final int count)
+    {
+        final var adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) adders[i] = new LongAdder();
+        return adders;
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, or 0 if the JVM doesn't count them
+     */
+    static long allocatedBytes() { return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes(); }
+
+    private static com.sun.management.ThreadMXBean allocationCounter()
+    {
+        final var bean = ManagementFactory.getThreadMXBean();
+
+        if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+        {
+            final var counter = (com.sun.management.ThreadMXBean) bean;
+            counter.setThreadAllocatedMemoryEnabled(true);
+            return counter;
+        }
+        return null;
+    }
+
+    @Name("databasefilter.Stage")
+    @Label("Pipeline Stage")
+    @Category("DatabaseFilter")
+    @Description("One run of a pipeline stage on one thread")
+    @StackTrace(false)
+    static class StageEvent extends Event
+    {
+        @Label("Stage") String stage;
+        @Label("Rows In") long rowsIn;
+        @Label("Rows Out") long rowsOut;
+        @Label("Allocated") @DataAmount long allocated;
+    }
+
+    @Name("databasefilter.StageTotal")
+    @Label("Pipeline Stage Total")
+    @Category("DatabaseFilter")
+    @Description("Running totals of a pipeline stage")
+    @StackTrace(false)
+    static class StageTotalEvent extends Event
+    {
+        @Label("Stage") String stage;
+        @Label("Time (ns)") long nanos;
+        @Label("Allocated") @DataAmount long allocated;
+        @Label("Rows In") long rowsIn;
+        @Label("Rows Out") long rowsOut;
+        @Label("Errors") long errors;
+    }
+
+    @Name("databasefilter.RejectionTotal")
+    @Label("Rejection Total")
+    @Category("DatabaseFilter")
+    @Description("Running total of the values or owners dropped for one reason")
+    @StackTrace(false)
+    static class RejectionTotalEvent extends Event
+    {
+        @Label("Reason") String reason;
+        @Label("Count") long count;
+    }
+}
@@ -0,0 +1,180 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Column store for properties. pNum and size are kept in primitive arrays and the string fields are dictionary
+ * encoded, so a row costs 24 bytes instead of a Property object with its own copy of every string.
+ *
+ * The table is a List of Property; get returns a lightweight view over the row rather than a stored object, and two
+ * views of the same row are equal
+ */
+public class PropertyTable extends AbstractList<Property>
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final StringDictionary names = new StringDictionary();
+    private final StringDictionary locations = new StringDictionary();
+    private final StringDictionary bedrooms = new StringDictionary();
+
+    private int[] pNums = new int[INITIAL_CAPACITY];
+    private double[] sizes = new double[INITIAL_CAPACITY];
+    private int[] nameCodes = new int[INITIAL_CAPACITY];
+    private int[] locationCodes = new int[INITIAL_CAPACITY];
+    private int[] bedroomCodes = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Appends the fields of a property as a new row; the property itself is not kept
+     * @param prop a property
+     * @return true
+     */
+    @Override
+    public boolean add(final Property prop)
+    {
+        if (size == pNums.length) grow();
+
+        pNums[size] = prop.getpNum();
+        sizes[size] = prop.getSize();
+        nameCodes[size] = names.encode(prop.getName());
+        locationCodes[size] = locations.encode(prop.getLocation());
+        bedroomCodes[size] = bedrooms.encode(prop.getBedrooms());
+        size++;
+        modCount++;
+        return true;
+    }
+
+    private void grow()
+    {
+        final int capacity = pNums.length * 2;
+
+        pNums = Arrays.copyOf(pNums, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        nameCodes = Arrays.copyOf(nameCodes, capacity);
+        locationCodes = Arrays.copyOf(locationCodes, capacity);
+        bedroomCodes = Arrays.copyOf(bedroomCodes, capacity);
+    }
+
+    /**
+     * @param index row number
+     * @return a view over the row
+     */
+    @Override
+    public Property get(final int index)
+    {
+        Objects.checkIndex(index, size);
+        return new PropertyView(index);
+    }
+
+    @Override
+    public int size() { return size; }
+
+    /**
+     * @param index row number
+     * @return the row's property number, without creating a view
+     */
+    public int getpNum(final int index)
+    {
+        Objects.checkIndex(index, size);
+        return pNums[index];
+    }
+
+    /**
+     * Groups the rows by property number. The index is a snapshot: rows added afterwards aren't in it
+     * @return the rows of the table keyed by their property number
+     */
+    public Index index() { return new Index(); }
+
+    /**
+     * The rows of the table sorted by property number, in the order they were added within each number. The numbers
+     * are read straight from the pNum column and kept in primitive arrays, and a view is only created for the rows a
+     * lookup returns
+     */
+    public class Index
+    {
+        private final int[] keys; //distinct property numbers, ascending
+        private final int[] starts; //keys[i] owns rows[starts[i]] up to rows[starts[i + 1]]
+        private final int[] rows;
+
+        private Index()
+        {
+            final long[] sorted = new long[size]; //pNum in the high half, row number in the low half
+
+            for (int row = 0; row < size; row++) sorted[row] = (long) pNums[row] << 32 | row;
+            Arrays.sort(sorted);
+
+            final int[] distinct = new int[size];
+            final int[] first = new int[size + 1];
+            int count = 0;
+
+            rows = new int[size];
+            for (int i = 0; i < size; i++)
+            {
+                final int pNum = (int) (sorted[i] >> 32);
+
+                if (count == 0 || distinct[count - 1] != pNum)
+                {
+                    distinct[count] = pNum;
+                    first[count++] = i;
+                }
+                rows[i] = (int) sorted[i];
+            }
+            first[count] = size;
+
+            keys = Arrays.copyOf(distinct, count);
+            starts = Arrays.copyOf(first, count + 1);
+        }
+
+        /**
+         * @param pNum a property number
+         * @return true if at least one row has the number
+         */
+        public boolean contains(final int pNum) { return Arrays.binarySearch(keys, pNum) >= 0; }
+
+        /**
+         * @param pNum a property number
+         * @return views over the rows with the number, in the order they were added; empty if there are none
+         */
+        public List<Property> get(final int pNum)
+        {
+            final int key = Arrays.binarySearch(keys, pNum);
+            if (key < 0) return List.of();
+
+            final List<Property> properties = new ArrayList<>(starts[key + 1] - starts[key]);
+            for (int i = starts[key]; i < starts[key + 1]; i++) properties.add(new PropertyView(rows[i]));
+            return properties;
+        }
+    }
+
+    /**
+     * A Property backed by one row of the table; reads and writes go straight to the columns
+     */
+    private class PropertyView extends Property
+    {
+        private final int row;
+
+        PropertyView(final int row) { this.row = row; }
+
+        @Override public String getName() { return names.decode(nameCodes[row]); }
+        @Override public String getLocation() { return locations.decode(locationCodes[row]); }
+        @Override public String getBedrooms() { return bedrooms.decode(bedroomCodes[row]); }
+        @Override public int getpNum() { return pNums[row]; }
+        @Override public double getSize() { return sizes[row]; }
+
+        @Override public void setName(final String name) { nameCodes[row] = names.encode(name); }
+        @Override public void setLocation(final String location) { locationCodes[row] = locations.encode(location); }
+        @Override public void setBedrooms(final String roomNum) { bedroomCodes[row] = bedrooms.encode(roomNum); }
+        @Override public void setpNum(final int pNum) { pNums[row] = pNum; }
+        @Override public void setSize(final double size) { sizes[row] = size; }
+
+        private PropertyTable table() { return PropertyTable.this; }
+
+        @Override
+        public boolean equals(final Object o) { return o instanceof PropertyView && ((PropertyView) o).table() == table() && ((PropertyView) o).row == row; }
+
+        @Override
+        public int hashCode() { return System.identityHashCode(table()) * 31 + row; }
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Decides whether an owner name contains one of the rejected keywords (developers, corporations, banks, royals).
+ *
+ * Every rule is compiled into a single Aho-Corasick automaton. Whole-word rules are stored as " keyword " and the name
+ * is read as " name ", so a word only matches between two spaces, while substring rules are stored as they are. A name
+ * is then checked with one pass over its characters and one table lookup per character, without creating any objects.
+ */
+public class RejectedOwnerMatcher
+{
+    private static final String DEFAULT_RULES = "/rejected-owners.txt"; //keyword file bundled with the application
+
+    private final List<String> rules; //rules as written in the keyword file
+    private final int[] charClass; //character -> column in the transition table, -1 if no rule uses it
+    private final int alphabetSize;
+    private final int[] next; //state * alphabetSize + column -> next state
+    private final int[] output; //state -> index of a rule that ends in it, -1 if none
+
+    private RejectedOwnerMatcher(final List<String> rules)
+    {
+        this.rules = List.copyOf(rules);
+
+        final List<String> patterns = new ArrayList<>(rules.size());
+        for (final String rule : rules) patterns.add(rule.startsWith("*") ? rule.substring(1) : " " + rule + " ");
+
+        //give every character used by the rules its own column
+        int maxChar = ' ';
+        for (final String pattern : patterns) for (int i = 0; i < pattern.length(); i++) maxChar = Math.max(maxChar, pattern.charAt(i));
+
+        charClass = new int[maxChar + 1];
+        Arrays.fill(charClass, -1);
+
+        int columns = 0;
+        for (final String pattern : patterns) for (int i = 0; i < pattern.length(); i++) if (charClass[pattern.charAt(i)] == -1) charClass[pattern.charAt(i)] = columns++;
+        alphabetSize = columns;
+
+        //build the trie of the rules
+        final List<int[]> trie = new ArrayList<>();
+        final List<Integer> ends = new ArrayList<>();
+        trie.add(newState());
+        ends.add(-1);
+
+        for (int r = 0; r < patterns.size(); r++)
+        {
+            int state = 0;
+            for (int i = 0; i < patterns.get(r).length(); i++)
+            {
+                final int column = charClass[patterns.get(r).charAt(i)];
+                if (trie.get(state)[column] == -1)
+                {
+                    trie.get(state)[column] = trie.size();
+                    trie.add(newState());
+                    ends.add(-1);
+                }
+                state = trie.get(state)[column];
+            }
+            if (ends.get(state) == -1) ends.set(state, r);
+        }
+
+        //turn the trie into a complete automaton by following the failure links breadth first
+        next = new int[trie.size() * alphabetSize];
+        output = new int[trie.size()];
+        final int[] fail = new int[trie.size()];
+        final var queue = new ArrayDeque<Integer>();
+
+        for (int s = 0; s < trie.size(); s++) output[s] = ends.get(s);
+
+        for (int c = 0; c < alphabetSize; c++)
+        {
+            final int child = trie.get(0)[c];
+            next[c] = child == -1 ? 0 : child;
+            if (child != -1) queue.add(child);
+        }
+
+        while (!queue.isEmpty())
+        {
+            final int state = queue.poll();
+            if (output[state] == -1) output[state] = output[fail[state]]; //a rule that ends inside this one
+
+            for (int c = 0; c < alphabetSize; c++)
+            {
+                final int child = trie.get(state)[c];
+                if (child == -1) next[state * alphabetSize + c] = next[fail[state] * alphabetSize + c];
+                else
+                {
+                    fail[child] = next[fail[state] * alphabetSize + c];
+                    next[state * alphabetSize + c] = child;
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    private int[] newState()
+    {
+        final int[] state = new int[alphabetSize];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    /**
+     * @return a matcher for the keyword file bundled with the application
+     */
+    public static RejectedOwnerMatcher defaults()
+    {
+        try (final InputStream input = RejectedOwnerMatcher.class.getResourceAsStream(DEFAULT_RULES))
+        {
+            if (input == null) throw new IllegalStateException(DEFAULT_RULES + " is missing from the classpath");
+            return parse(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)));
+        }
+        catch (IOException ioe) { throw new UncheckedIOException(ioe); }
+    }
+
+    /**
+     * Compiles the rules of a keyword file, so each market can keep its own list outside the code
+     * @param keywordFile one rule per line; '#' starts a comment line and a leading '*' makes the rule a substring rule
+     * @return the compiled matcher
+     * @throws IOException if the file can't be read
+     */
+    public static RejectedOwnerMatcher load(final Path keywordFile) throws IOException
+    {
+        try (final BufferedReader reader = Files.newBufferedReader(keywordFile, StandardCharsets.UTF_8)) { return parse(reader); }
+    }
+
+    /**
+     * @param rules whole-word keywords, or substring keywords prefixed with '*'
+     * @return the compiled matcher
+     */
+    public static RejectedOwnerMatcher of(final List<String> rules)
+    {
+        final List<String> normalized = new ArrayList<>(rules.size());
+        rules.forEach(rule -> normalized.add(rule.trim().toLowerCase(Locale.ROOT)));
+        normalized.removeIf(rule -> rule.isEmpty() || rule.equals("*"));
+        return new RejectedOwnerMatcher(normalized);
+    }
+
+    private static RejectedOwnerMatcher parse(final BufferedReader reader) throws IOException
+    {
+        final List<String> rules = new ArrayList<>();
+        String line;
+
+        while ((line = reader.readLine()) != null) if (!line.trim().startsWith("#")) rules.add(line);
+        return of(rules);
+    }
+
+    /**
+     * Finds the first rule that matches the name
+     * @param name an owner name
+     * @return the rule as written in the keyword file, or null if no rule matches
+     */
+    public String match(final CharSequence name)
+    {
+        int state = step(0, ' ');
+        if (output[state] != -1) return rules.get(output[state]);
+
+        for (int i = 0; i < name.length(); i++)
+        {
+            state = step(state, Character.toLowerCase(name.charAt(i)));
+            if (output[state] != -1) return rules.get(output[state]);
+        }
+
+        state = step(state, ' ');
+        return output[state] == -1 ? null : rules.get(output[state]);
+    }
+
+    /**
+     * @param name an owner name
+     * @return true if any rule matches the name
+     */
+    public boolean matches(final CharSequence name) { return match(name) != null; }
+
+    private int step(final int state, final char c)
+    {
+        final int column = c < charClass.length ? charClass[c] : -1;
+        return column == -1 ? 0 : next[state * alphabetSize + column];
+    }
+
+    /**
+     * @return the rules as written in the keyword file
+     */
+    public List<String> getRules() { return rules; }
+}
@@ -0,0 +1,133 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Moves the decoding of parsed rows off the thread that parses them. The parser thread hands rows to add(), which
+ * gathers them into batches and submits every full batch to a pool of worker threads that decode the batches in
+ * parallel. The decoded batches are handed to the collector on the parser thread, in the order the rows were parsed, so
+ * the collector needs no locking and sees the same sequence of rows as a single-threaded decoder would.
+ *
+ * At most maxInFlight batches are submitted but not yet collected; once that many are pending, the parser thread waits
+ * for the oldest one before it parses on. That bounds the memory held by rows waiting to be decoded, and lets the parser
+ * run ahead of the workers by a fixed amount only.
+ * @param <B> a decoded batch
+ */
+public class RowPipeline<B>
+{
+    private final ExecutorService workers;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final Function<String[][], B> decoder; //runs on a worker thread
+    private final Consumer<B> collector; //runs on the parser thread
+
+    private final ArrayDeque<Future<B>> inFlight = new ArrayDeque<>(); //submitted batches, oldest first
+    private String[][] batch;
+    private int size;
+
+    /**
+     * @param workers threads the batches are decoded on
+     * @param batchSize rows per batch
+     * @param maxInFlight most batches submitted but not collected yet
+     * @param decoder decodes the rows of a batch; must be safe to call from several threads at once
+     * @param collector receives the decoded batches in order
+     */
+    public RowPipeline(final ExecutorService workers, final int batchSize, final int maxInFlight, final Function<String[][], B> decoder, final Consumer<B> collector)
+    {
+        if (batchSize < 1 || maxInFlight < 1) throw new IllegalArgumentException("The batch size and the batches in flight must be positive");
+
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.decoder = decoder;
+        this.collector = collector;
+    }
+
+    /**
+     * @param threads number of worker threads
+     * @return a pool of daemon threads for decoding batches, shared by every pipeline that uses it
+     */
+    public static ExecutorService newWorkerPool(final int threads)
+    {
+        final var count = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(threads, task ->
+        {
+            final var thread = new Thread(task, "row-decoder-" + count.incrementAndGet());
+            thread.setDaemon(true); //idle workers never keep the application alive
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a parsed row for decoding
+     * @param values cells of the row; copied, so the parser may reuse the array
+     * @throws RuntimeException whatever the decoder threw on an earlier batch
+     */
+    public void add(final String[] values)
+    {
+        if (batch == null) batch = new String[batchSize][];
+
+        batch[size++] = values.clone();
+        if (size == batchSize) submit();
+    }
+
+    /**
+     * Decodes the rows still queued and waits until every batch has been collected
+     * @throws RuntimeException whatever the decoder threw
+     */
+    public void finish()
+    {
+        if (size > 0) submit();
+        while (!inFlight.isEmpty()) collect(inFlight.poll());
+    }
+
+    private void submit()
+    {
+        if (inFlight.size() >= maxInFlight) collect(inFlight.poll()); //backpressure: wait for the oldest batch
+
+        final String[][] rows = size == batchSize ? batch : Arrays.copyOf(batch, size);
+        inFlight.add(workers.submit(() -> decoder.apply(rows)));
+
+        batch = null;
+        size = 0;
+
+        while (!inFlight.isEmpty() && inFlight.peek().isDone()) collect(inFlight.poll()); //hand over what is ready
+    }
+
+    /**
+     * Waits for a batch and hands it to the collector. If the batch failed, the batches after it are cancelled and the
+     * failure is rethrown on the parser thread
+     */
+    private void collect(final Future<B> decoded)
+    {
+        try { collector.accept(decoded.get()); }
+        catch (ExecutionException e)
+        {
+            cancel();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while decoding rows", e);
+        }
+    }
+
+    private void cancel()
+    {
+        inFlight.forEach(future -> future.cancel(true));
+        inFlight.clear();
+        batch = null;
+        size = 0;
+    }
+}
@@ -0,0 +1,265 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Declares the columns a sheet is read from and what each of them sets on the decoded object. A schema is compiled
+ * once per sheet against its header row into an array with one setter per sheet column, so decoding a cell is a single
+ * array lookup instead of a chain of header name comparisons.
+ *
+ * Headers are found through Aliases, a table of the names each column goes by in the different registry exports. It is
+ * read from a text file, so a new export format only needs new aliases. Headers and aliases are compared ignoring case,
+ * surrounding spaces and whether words are separated by spaces, '_' or '-'. When several headers match a column the
+ * last one is used.
+ * @param <T> the object a row is decoded into
+ */
+public class RowSchema<T>
+{
+    /**
+     * Sets a cell's value on the object decoded from its row
+     * @param <T> the decoded object
+     */
+    @FunctionalInterface
+    public interface Setter<T>
+    {
+        /**
+         * @param target the object decoded from the row
+         * @param value cell text, never null
+         */
+        void set(T target, String value);
+    }
+
+    private final String sheet; //name of the sheet kind in the alias table, e.g. "owner"
+    private final List<String> names = new ArrayList<>();
+    private final List<Boolean> required = new ArrayList<>();
+    private final List<Setter<T>> setters = new ArrayList<>();
+
+    /**
+     * @param sheet name of the sheet kind in the alias table, e.g. "owner" or "property"
+     */
+    public RowSchema(final String sheet) { this.sheet = sheet; }
+
+    /**
+     * Adds a column the sheet must have
+     * @param name column name in the alias table
+     * @param setter applied to every non-empty cell of the column
+     * @return this schema
+     */
+    public RowSchema<T> required(final String name, final Setter<T> setter) { return column(name, true, setter); }
+
+    /**
+     * Adds a column the sheet may lack
+     * @param name column name in the alias table
+     * @param setter applied to every non-empty cell of the column
+     * @return this schema
+     */
+    public RowSchema<T> optional(final String name, final Setter<T> setter) { return column(name, false, setter); }
+
+    private RowSchema<T> column(final String name, final boolean isRequired, final Setter<T> setter)
+    {
+        names.add(name);
+        required.add(isRequired);
+        setters.add(setter);
+        return this;
+    }
+
+    /**
+     * Finds every declared column in the header row
+     * @param headers cell text of the header row, indexed by column
+     * @param aliases header names of each column
+     * @return the schema bound to the sheet's columns
+     * @throws IllegalArgumentException if a required column isn't in the header row
+     */
+    public Compiled compile(final List<String> headers, final Aliases aliases)
+    {
+        final String[] normalized = new String[headers.size()];
+        for (int col = 0; col < normalized.length; col++) normalized[col] = headers.get(col) == null ? null : normalize(headers.get(col));
+
+        final int[] columns = new int[names.size()];
+        for (int i = 0; i < columns.length; i++)
+        {
+            columns[i] = -1;
+            final List<String> names = aliases.of(sheet, this.names.get(i));
+
+            for (int col = 0; col < normalized.length; col++) if (normalized[col] != null && names.contains(normalized[col])) columns[i] = col;
+
+            if (columns[i] == -1 && required.get(i))
+                throw new IllegalArgumentException("The " + sheet + " sheet has no " + this.names.get(i) + " column, looked for " + names + " in " + headers);
+        }
+        return new Compiled(columns, headers.size());
+    }
+
+    /**
+     * The schema bound to the columns of one sheet
+     */
+    public class Compiled
+    {
+        private final int[] columns; //sheet column of each declared column, in declaration order; -1 if missing
+        private final int[] present; //sheet columns that are read, in declaration order
+        private final Setter<T>[] presentSetters; //setter of each entry in present
+        private final boolean[] reads; //sheet column -> true if a setter reads it
+
+        @SuppressWarnings({"unchecked", "rawtypes"}) //a generic array can only be created raw
+        private Compiled(final int[] columns, final int width)
+        {
+            this.columns = columns;
+            this.reads = new boolean[width];
+
+            final int count = (int) Arrays.stream(columns).filter(col -> col != -1).count();
+            this.present = new int[count];
+            this.presentSetters = new Setter[count];
+
+            for (int i = 0, j = 0; i < columns.length; i++)
+            {
+                if (columns[i] == -1) continue;
+
+                present[j] = columns[i];
+                presentSetters[j++] = setters.get(i);
+                reads[columns[i]] = true;
+            }
+        }
+
+        /**
+         * @return the sheet column of every declared column in declaration order, -1 where it is missing
+         */
+        public int[] columns() { return columns.clone(); }
+
+        /**
+         * @param col a sheet column
+         * @return true if a setter reads the column
+         */
+        public boolean reads(final int col) { return col < reads.length && reads[col]; }
+
+        /**
+         * Applies the setters of the row's non-empty cells in declaration order
+         * @param target the object decoded from the row
+         * @param values cell text indexed by column, null where the cell is empty
+         */
+        public void apply(final T target, final String[] values)
+        {
+            for (int i = 0; i < present.length; i++)
+            {
+                final int col = present[i];
+                if (col < values.length && values[col] != null) presentSetters[i].set(target, values[col]);
+            }
+        }
+    }
+
+    /**
+     * @param header header or alias text
+     * @return the text upper-cased and trimmed, with every run of spaces, '_' and '-' turned into a single space
+     */
+    static String normalize(final String header)
+    {
+        final var sb = new StringBuilder(header.length());
+        boolean separator = false;
+
+        for (int i = 0; i < header.length(); i++)
+        {
+            final char c = header.charAt(i);
+
+            if (Character.isWhitespace(c) || c == '_' || c == '-') separator = sb.length() > 0;
+            else
+            {
+                if (separator) sb.append(' ');
+                separator = false;
+                sb.append(Character.toUpperCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The header names each column goes by, per sheet kind
+     */
+    public static class Aliases
+    {
+        private static final String DEFAULT_ALIASES = "/registry-columns.txt"; //alias file bundled with the application
+
+        private final Map<String, List<String>> aliases; //"sheet.COLUMN" -> normalized header names
+
+        private Aliases(final Map<String, List<String>> aliases) { this.aliases = aliases; }
+
+        /**
+         * @param sheet sheet kind, e.g. "owner"
+         * @param column column name
+         * @return the normalized header names of the column; just the column name itself if it has no aliases
+         */
+        public List<String> of(final String sheet, final String column)
+        {
+            final List<String> names = aliases.get(sheet + "." + normalize(column));
+            return names != null ? names : List.of(normalize(column));
+        }
+
+        /**
+         * @return the aliases bundled with the application
+         */
+        public static Aliases defaults()
+        {
+            try (final InputStream input = Aliases.class.getResourceAsStream(DEFAULT_ALIASES))
+            {
+                if (input == null) throw new IllegalStateException(DEFAULT_ALIASES + " is missing from the classpath");
+                return parse(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)));
+            }
+            catch (IOException ioe) { throw new UncheckedIOException(ioe); }
+        }
+
+        /**
+         * Reads an alias file laid out like the bundled one
+         * @param aliasFile lines of "sheet.COLUMN = alias, alias, ..."
+         * @return the aliases in the file
+         * @throws IOException if the file can't be read or a line isn't an alias line
+         */
+        public static Aliases load(final Path aliasFile) throws IOException
+        {
+            try (final BufferedReader reader = Files.newBufferedReader(aliasFile, StandardCharsets.UTF_8)) { return parse(reader); }
+        }
+
+        /**
+         * Writes the aliases as an alias file that load reads back, e.g. for a worker process
+         * @param aliasFile the file to write
+         * @throws IOException if the file can't be written
+         */
+        public void save(final Path aliasFile) throws IOException
+        {
+            final List<String> lines = new ArrayList<>(aliases.size());
+            aliases.forEach((key, names) -> lines.add(key + " = " + String.join(", ", names)));
+            Files.write(aliasFile, lines, StandardCharsets.UTF_8);
+        }
+
+        private static Aliases parse(final BufferedReader reader) throws IOException
+        {
+            final Map<String, List<String>> aliases = new HashMap<>();
+            String line;
+
+            while ((line = reader.readLine()) != null)
+            {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue; //blank line or comment
+
+                final int equals = line.indexOf('=');
+                final int dot = line.indexOf('.');
+                if (equals == -1 || dot == -1 || dot > equals) throw new IOException("Not an alias line: " + line);
+
+                final String key = line.substring(0, dot).trim().toLowerCase(Locale.ROOT) + "." + normalize(line.substring(dot + 1, equals));
+                final List<String> names = new ArrayList<>();
+
+                for (final String alias : line.substring(equals + 1).split(",")) if (!alias.isBlank()) names.add(normalize(alias));
+                aliases.put(key, Collections.unmodifiableList(names));
+            }
+            return new Aliases(Collections.unmodifiableMap(aliases));
+        }
+    }
+}
@@ -0,0 +1,558 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Reads the inputs of one run in several worker JVMs, so decoding is spread over every core without one large heap.
+ * Every row goes to the worker its pNum hashes to:
+ *
+ *   1. the coordinator streams every input once and splits the rows of each owner and property sheet by pNum into one
+ *      row file per shard, keeping only the cells of the columns FileSorter reads;
+ *   2. it starts one worker process per shard, which replays its own row files through FileSorter's row handlers, so
+ *      it only normalizes and qualifies its own rows. A pNum's owners and properties all land in the same shard, so
+ *      each worker matches its owners with their properties on its own, drops the owners without any, and writes the
+ *      rest to a shard file in row order, each owner with its sequence number (the owner sheet and the row it was read
+ *      from) and, the first time the pNum comes up, its properties;
+ *   3. the coordinator merges the shard files by sequence number, which restores the order the rows were read in, and
+ *      hands the owners and properties to FileSorter's join. Owners of different shards that share a phone number, an
+ *      email or a name are merged there, so the prospective clients are the same, in the same order, as when the inputs
+ *      are read in one process.
+ *
+ * Parsing stays with the coordinator, which streams the sheets of a workbook in parallel; the workers share out the
+ * decoding and matching, and each holds only its own rows. Workers decode on their parsing thread, since the workers
+ * themselves already take up the cores. The workers' NORMALIZE, QUALIFY and rejection counters come back at the end
+ * of their shard files and are added to the coordinator's PipelineMetrics.
+ */
+public class ShardedRun
+{
+    static final String WORKER = "--shard"; //first argument of a worker process, see FileSorter.main
+    private static final long END = -1; //sequence number that ends a shard file
+    private static final PipelineMetrics.Stage[] WORKER_STAGES = {PipelineMetrics.Stage.NORMALIZE, PipelineMetrics.Stage.QUALIFY}; //run by the workers only
+    private static final int END_OF_SHEET = -1; //row number that ends a row file
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * One input file and the role of each of its sheets. A CSV file has a single role
+     */
+    public static class Input
+    {
+        final File file;
+        final String[] roles;
+
+        /**
+         * @param file an Excel or CSV file
+         * @param roles one entry per sheet, in sheet order: 'o' for owners, 'p' for properties, anything else to skip it
+         */
+        public Input(final File file, final String... roles)
+        {
+            if (roles.length == 0) throw new IllegalArgumentException("No sheet roles given for " + file);
+
+            this.file = file;
+            this.roles = roles;
+        }
+
+        boolean isCsv() { return file.getName().toLowerCase(Locale.ROOT).endsWith(".csv"); }
+    }
+
+    private final int shards;
+    private final Path workDir;
+    private final List<String> jvmOptions = new ArrayList<>(); //e.g. -Xmx2g, passed to every worker
+
+    /**
+     * @param shards number of worker processes
+     * @param workDir directory the shard files are written to
+     */
+    public ShardedRun(final int shards, final Path workDir)
+    {
+        if (shards < 1) throw new IllegalArgumentException("The number of shards must be positive, was " + shards);
+
+        this.shards = shards;
+        this.workDir = workDir;
+    }
+
+    /**
+     * @param options JVM options every worker is started with, such as its heap size
+     */
+    public void setJvmOptions(final String... options) { jvmOptions.addAll(List.of(options)); }
+
+    /**
+     * Splits the inputs into row files, runs the workers on them and merges their shard files
+     * @param coordinator the FileSorter the rows are read for; the workers use its keyword rules and column aliases
+     * @param inputs the inputs, in the order they would be read in one process
+     * @param owners receives the owners that own a property, in the order they were read
+     * @param properties receives the properties of those owners, in the order they were read per pNum
+     * @return number of rows the workers decoded
+     * @throws IOException if an input can't be split, a worker fails or a shard file can't be read
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    long run(final FileSorter coordinator, final List<Input> inputs, final Consumer<Owner> owners, final Consumer<Property> properties)
+            throws IOException, InterruptedException
+    {
+        Files.createDirectories(workDir);
+        final Path dir = Files.createTempDirectory(workDir, "shards");
+
+        try
+        {
+            final Path rules = dir.resolve("rejected-owners.txt");
+            final Path aliases = dir.resolve("registry-columns.txt");
+            coordinator.saveSettings(rules, aliases);
+
+            final List<Splitter> sheets = split(coordinator, inputs, dir);
+
+            final List<Process> workers = new ArrayList<>(shards);
+            try
+            {
+                for (int shard = 0; shard < shards; shard++) workers.add(start(shard, dir, rules, aliases, sheets));
+
+                for (int shard = 0; shard < shards; shard++)
+                {
+                    final int exit = workers.get(shard).waitFor();
+                    if (exit != 0) throw new IOException("Shard " + shard + " of " + shards + " failed with exit code " + exit);
+                }
+            }
+            finally { workers.forEach(Process::destroy); } //no-op for the workers that are done
+
+            return merge(dir, owners, properties, coordinator.getMetrics());
+        }
+        finally { delete(dir); }
+    }
+
+    /**
+     * Streams every input once and writes the rows of its owner and property sheets to the row files of their shards
+     * @return the split sheets, in the order they were read
+     */
+    private List<Splitter> split(final FileSorter coordinator, final List<Input> inputs, final Path dir) throws IOException
+    {
+        final List<Splitter> sheets = new ArrayList<>();
+
+        for (final Input input : inputs)
+        {
+            final Map<Integer, SheetStreamReader.RowHandler> handlers = new HashMap<>();
+            final List<Splitter> splitters = new ArrayList<>();
+
+            for (int i = 0; i < (input.isCsv() ? 1 : input.roles.length); i++)
+            {
+                if (!input.roles[i].equalsIgnoreCase("o") && !input.roles[i].equalsIgnoreCase("p")) continue;
+
+                final var splitter = new Splitter(coordinator, input.roles[i], dir, sheets.size());
+                sheets.add(splitter);
+                splitters.add(splitter);
+                handlers.put(i, splitter);
+            }
+
+            try
+            {
+                if (input.isCsv()) { if (handlers.containsKey(0)) CsvStreamReader.read(input.file, handlers.get(0)); }
+                else SheetStreamReader.read(input.file, handlers);
+            }
+            catch (UncheckedIOException e) { throw e.getCause(); } //a row file couldn't be written
+            catch (IllegalArgumentException e) { throw new IOException("Can't split " + input.file, e); } //missing required column
+            finally { for (final Splitter splitter : splitters) splitter.close(); }
+        }
+        return sheets;
+    }
+
+    /**
+     * Starts the worker of a shard, with the classpath of this JVM
+     */
+    private Process start(final int shard, final Path dir, final Path rules, final Path aliases, final List<Splitter> sheets) throws IOException
+    {
+        final List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), FileSorter.class.getName()));
+        command.addAll(List.of(WORKER, shard + "/" + shards, "--out", shardFile(dir, shard).toString(), "--rules", rules.toString(), "--aliases", aliases.toString()));
+
+        for (final Splitter sheet : sheets) command.addAll(List.of(rowFile(dir, sheet.sheet, shard).toString(), sheet.role));
+
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    private static Path shardFile(final Path dir, final int shard) { return dir.resolve("shard-" + shard + ".bin"); }
+
+    private static Path rowFile(final Path dir, final int sheet, final int shard) { return dir.resolve("rows-" + sheet + "-" + shard + ".bin"); }
+
+    /**
+     * @param pNum a property number
+     * @param shards number of shards
+     * @return the shard the rows of the property number go to
+     */
+    static int shardOf(final int pNum, final int shards) { return Math.floorMod(pNum * 0x9E3779B9, shards); } //spreads runs of consecutive pNums
+
+    /**
+     * Merges the shard files into one sequence of owners, ordered by sequence number, and adds the workers' NORMALIZE,
+     * QUALIFY and rejection counters to the metrics
+     * @return number of rows the workers decoded
+     */
+    private long merge(final Path dir, final Consumer<Owner> owners, final Consumer<Property> properties, final PipelineMetrics metrics) throws IOException
+    {
+        final PriorityQueue<ShardReader> queue = new PriorityQueue<>(Comparator.comparingLong((ShardReader reader) -> reader.seq));
+        final List<ShardReader> readers = new ArrayList<>(shards);
+        long decoded = 0;
+
+        try
+        {
+            for (int shard = 0; shard < shards; shard++)
+            {
+                final var reader = new ShardReader(shardFile(dir, shard), metrics);
+                readers.add(reader);
+                if (reader.next()) queue.add(reader);
+            }
+
+            while (!queue.isEmpty())
+            {
+                final ShardReader reader = queue.poll();
+                owners.accept(reader.owner);
+                reader.properties.forEach(properties);
+                if (reader.next()) queue.add(reader);
+            }
+
+            for (final ShardReader reader : readers) decoded += reader.decoded;
+        }
+        finally { for (final ShardReader reader : readers) reader.in.close(); }
+
+        return decoded;
+    }
+
+    /**
+     * Writes the rows of one sheet to the row files of their shards. A row file starts with the sheet's headers and the
+     * columns that follow in every row, then holds the row number and those cells of each of the shard's rows, and ends
+     * with END_OF_SHEET. A sheet without a header row leaves no row files
+     */
+    private class Splitter implements SheetStreamReader.RowHandler
+    {
+        final String role; //'o' or 'p'
+        final int sheet; //position among the sheets of the run, in the order they are read
+        private final FileSorter coordinator;
+        private final Path dir;
+        private DataOutputStream[] outs; //row file of each shard; set by header()
+        private int[] columns; //columns written, P-NUMBER first; set by header()
+        private int pNumColumn;
+        private int row; //rows of every shard seen so far
+
+        Splitter(final FileSorter coordinator, final String role, final Path dir, final int sheet)
+        {
+            this.coordinator = coordinator;
+            this.role = role;
+            this.dir = dir;
+            this.sheet = sheet;
+        }
+
+        @Override
+        public void header(final List<String> headers)
+        {
+            final int[] read = coordinator.columnsRead(role, headers);
+            pNumColumn = read[0]; //P-NUMBER comes first
+            columns = Arrays.stream(read).filter(col -> col != -1).distinct().toArray();
+            outs = new DataOutputStream[shards];
+
+            try
+            {
+                for (int shard = 0; shard < shards; shard++)
+                {
+                    final var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(rowFile(dir, sheet, shard)), BUFFER));
+                    outs[shard] = out;
+
+                    out.writeInt(headers.size());
+                    for (final String header : headers) SpillingJoin.writeString(out, header);
+                    out.writeInt(columns.length);
+                    for (final int col : columns) out.writeInt(col);
+                }
+            }
+            catch (IOException ioe) { throw new UncheckedIOException(ioe); }
+        }
+
+        @Override
+        public int[] columns() { return columns; }
+
+        @Override
+        public void row(final String[] values)
+        {
+            final DataOutputStream out = outs[shardOf(values)];
+
+            try
+            {
+                out.writeInt(row++);
+                for (final int col : columns) SpillingJoin.writeString(out, col < values.length ? values[col] : null);
+            }
+            catch (IOException ioe) { throw new UncheckedIOException(ioe); }
+        }
+
+        /**
+         * Ends and closes the row files
+         */
+        void close() throws IOException
+        {
+            if (outs == null) return; //no header row
+
+            for (final DataOutputStream out : outs)
+            {
+                if (out == null) continue; //header() failed while opening the files
+
+                out.writeInt(END_OF_SHEET);
+                out.close();
+            }
+        }
+
+        /**
+         * @return the shard of the row's pNum. A row without a readable pNum goes to shard 0, so exactly one worker
+         *         reports it
+         */
+        private int shardOf(final String[] values)
+        {
+            if (pNumColumn == -1 || pNumColumn >= values.length || values[pNumColumn] == null) return 0;
+
+            try { return ShardedRun.shardOf(FileSorter.parsePNum(values[pNumColumn]), shards); }
+            catch (NumberFormatException e) { return 0; }
+        }
+    }
+
+    /**
+     * Reads the records of a shard file one by one
+     */
+    private static class ShardReader
+    {
+        final DataInputStream in;
+        private final PipelineMetrics metrics; //receives the worker's counters from the end of the file
+        long seq;
+        Owner owner;
+        final List<Property> properties = new ArrayList<>(1);
+        long decoded; //rows the worker decoded, read from the end of the file
+
+        ShardReader(final Path file, final PipelineMetrics metrics) throws IOException
+        {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER));
+            this.metrics = metrics;
+        }
+
+        /**
+         * @return false once the end of the file is reached
+         */
+        boolean next() throws IOException
+        {
+            seq = in.readLong(); //a file cut short by a crashed worker fails here instead of being taken as complete
+            properties.clear();
+
+            if (seq == END)
+            {
+                decoded = in.readLong();
+                readCounters(in, metrics);
+                return false;
+            }
+
+            owner = SpillingJoin.readOwner(in);
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) properties.add(SpillingJoin.readProperty(in));
+            return true;
+        }
+    }
+
+    /**
+     * Entry point of a worker process
+     * @param args --shard &lt;i/n&gt; --out &lt;file&gt; --rules &lt;file&gt; --aliases &lt;file&gt; (&lt;row file&gt; &lt;role&gt;)...
+     * @return the process exit code: 0 if the shard file was written
+     */
+    static int work(final String[] args)
+    {
+        try
+        {
+            final var sorter = new FileSorter();
+            sorter.setPipelinedDecoding(false);
+            sorter.setRejectedOwners(RejectedOwnerMatcher.load(Path.of(args[5])));
+            sorter.setColumnAliases(RowSchema.Aliases.load(Path.of(args[7])));
+
+            final var worker = new Worker(sorter);
+            for (int i = 8; i + 1 < args.length; i += 2) worker.read(Path.of(args[i]), args[i + 1]);
+
+            worker.write(Path.of(args[3]));
+            return 0;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            e.printStackTrace();
+            return 1;
+        }
+    }
+
+    /**
+     * Decodes the rows of one shard and writes its shard file
+     */
+    private static class Worker
+    {
+        private final FileSorter sorter;
+        private final List<Replay<Owner>> ownerSheets = new ArrayList<>(); //in the order the rows are numbered
+        private final List<Replay<Property>> propertySheets = new ArrayList<>();
+
+        Worker(final FileSorter sorter) { this.sorter = sorter; }
+
+        /**
+         * Decodes the rows of a row file through FileSorter's row handler for its role
+         * @param rowFile the shard's rows of one sheet; missing if the sheet has no header row
+         * @param role 'o' for owners, 'p' for properties
+         */
+        void read(final Path rowFile, final String role) throws IOException
+        {
+            if (role.equalsIgnoreCase("o"))
+            {
+                final List<Owner> owners = new ArrayList<>();
+                final var sheet = new Replay<>(sorter.ownerRowHandler(owners::add), owners);
+                ownerSheets.add(sheet); //numbers the owner sheets even if empty, like the coordinator does
+                if (Files.exists(rowFile)) sheet.replay(rowFile);
+            }
+            else
+            {
+                final List<Property> properties = new PropertyTable();
+                final var sheet = new Replay<>(sorter.propertyRowHandler(properties::add), properties);
+                propertySheets.add(sheet);
+                if (Files.exists(rowFile)) sheet.replay(rowFile);
+            }
+        }
+
+        void write(final Path out) throws IOException
+        {
+            final Map<Integer, List<Property>> propertyIndex = new HashMap<>();
+            for (final Replay<Property> sheet : propertySheets)
+            {
+                for (final Property prop : sheet.decoded) propertyIndex.computeIfAbsent(prop.getpNum(), k -> new ArrayList<>(1)).add(prop);
+            }
+
+            final Set<Integer> written = new HashSet<>(); //pNums whose properties are in the file already
+            long decoded = 0;
+
+            try (final var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(out), BUFFER)))
+            {
+                for (int sheet = 0; sheet < ownerSheets.size(); sheet++)
+                {
+                    final Replay<Owner> owners = ownerSheets.get(sheet);
+
+                    for (int i = 0; i < owners.decoded.size(); i++)
+                    {
+                        final Owner owner = owners.decoded.get(i);
+                        final List<Property> props = propertyIndex.get(owner.getpNum());
+                        if (props == null) continue; //owns nothing, can't become a client
+
+                        output.writeLong((long) sheet << 32 | owners.rows[i]);
+                        SpillingJoin.writeOwner(output, owner);
+
+                        final boolean first = written.add(owner.getpNum());
+                        output.writeInt(first ? props.size() : 0);
+                        if (first) for (final Property prop : props) SpillingJoin.writeProperty(output, prop);
+                    }
+                }
+
+                for (final Replay<?> sheet : ownerSheets) decoded += sheet.decoded.size();
+                for (final Replay<?> sheet : propertySheets) decoded += sheet.decoded.size();
+
+                output.writeLong(END);
+                output.writeLong(decoded);
+                writeCounters(output, sorter.getMetrics());
+            }
+        }
+
+        /**
+         * Hands the rows of a row file to a row handler and remembers the row number of every object it decodes. The
+         * handler decodes on the calling thread, so an object decoded from a row has been added to the list by the
+         * time row() returns
+         * @param <T> Property or Owner
+         */
+        private static class Replay<T>
+        {
+            private final SheetStreamReader.RowHandler handler;
+            final List<T> decoded;
+            int[] rows = new int[16]; //row number of each decoded object
+
+            Replay(final SheetStreamReader.RowHandler handler, final List<T> decoded)
+            {
+                this.handler = handler;
+                this.decoded = decoded;
+            }
+
+            void replay(final Path rowFile) throws IOException
+            {
+                try (final var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(rowFile), BUFFER)))
+                {
+                    final List<String> headers = new ArrayList<>();
+                    for (int i = in.readInt(); i > 0; i--) headers.add(SpillingJoin.readString(in));
+
+                    final int[] columns = new int[in.readInt()];
+                    for (int i = 0; i < columns.length; i++) columns[i] = in.readInt();
+
+                    handler.header(headers);
+
+                    for (int number = in.readInt(); number != END_OF_SHEET; number = in.readInt())
+                    {
+                        final String[] values = new String[headers.size()];
+                        for (final int col : columns) values[col] = SpillingJoin.readString(in);
+
+                        final int before = decoded.size();
+                        handler.row(values);
+
+                        if (decoded.size() == before) continue; //filtered out
+                        if (before == rows.length) rows = Arrays.copyOf(rows, before * 2);
+                        rows[before] = number;
+                    }
+                    handler.end();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the counters of the stages and rejections that only the workers see, after END in a shard file
+     */
+    private static void writeCounters(final DataOutputStream out, final PipelineMetrics metrics) throws IOException
+    {
+        for (final PipelineMetrics.Stage stage : WORKER_STAGES)
+        {
+            out.writeLong(metrics.getNanos(stage));
+            out.writeLong(metrics.getAllocated(stage));
+            out.writeLong(metrics.getRows(stage, false));
+            out.writeLong(metrics.getRows(stage, true));
+        }
+        for (final PipelineMetrics.Rejection reason : PipelineMetrics.Rejection.values()) out.writeLong(metrics.getRejections(reason));
+    }
+
+    /**
+     * Adds the counters written by writeCounters to the coordinator's metrics
+     */
+    private static void readCounters(final DataInputStream in, final PipelineMetrics metrics) throws IOException
+    {
+        for (final PipelineMetrics.Stage stage : WORKER_STAGES)
+        {
+            metrics.time(stage, in.readLong());
+            metrics.allocate(stage, in.readLong());
+            metrics.rows(stage, in.readLong(), in.readLong());
+        }
+        for (final PipelineMetrics.Rejection reason : PipelineMetrics.Rejection.values()) metrics.reject(reason, in.readLong());
+    }
+
+    /**
+     * Deletes the shard directory and everything in it
+     */
+    private static void delete(final Path dir) throws IOException
+    {
+        try (final Stream<Path> files = Files.list(dir))
+        {
+            for (final Path file : (Iterable<Path>) files::iterator) Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(dir);
+    }
+}
@@ -0,0 +1,195 @@
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.ss.util.NumberToTextConverter;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads an Excel sheet row by row through the POI event API (XSSFReader + SAX) instead of building the whole
+ * XSSFWorkbook in memory. Only the shared strings table and the current row are held at any point in time.
+ */
+public class SheetStreamReader
+{
+    /**
+     * Receives the rows of a sheet as they are parsed
+     */
+    public interface RowHandler
+    {
+        /**
+         * Invoked once with the first row of the sheet
+         * @param headers cell text of the header row, indexed by column
+         */
+        void header(List<String> headers);
+
+        /**
+         * Invoked for every row after the header
+         * @param values cell text indexed by column, null where the cell is empty
+         */
+        void row(String[] values);
+
+        /**
+         * Lets a reader skip the columns nobody needs; only called after header
+         * @return the column indices this handler reads (-1 entries are ignored), or null if it may read any column
+         */
+        default int[] columns() { return null; }
+
+        /**
+         * Invoked once after the last row
+         */
+        default void end() {}
+    }
+
+    /**
+     * Streams one sheet of the input file into the handler
+     * @param inFile the Excel file
+     * @param index index of the relevant sheet
+     * @param handler receiver of the header and the rows
+     * @throws IOException if the file can't be opened or parsed
+     */
+    public static void read(final File inFile, final int index, final RowHandler handler) throws IOException { read(inFile, Map.of(index, handler)); }
+
+    /**
+     * Opens the input file once and streams several of its sheets at the same time, each on its own thread. The shared
+     * strings and styles are parsed once and shared by all the sheets; every handler is only ever called from the
+     * thread that parses its sheet
+     * @param inFile the Excel file
+     * @param handlers receiver of the header and the rows of each sheet, by sheet index
+     * @throws IOException if the file can't be opened or any of the sheets can't be parsed
+     */
+    public static void read(final File inFile, final Map<Integer, RowHandler> handlers) throws IOException
+    {
+        try (final OPCPackage pkg = OPCPackage.open(inFile, PackageAccess.READ))
+        {
+            final var reader = new XSSFReader(pkg);
+            final var strings = new ReadOnlySharedStringsTable(pkg);
+            final var styles = reader.getStylesTable();
+            final Iterator<InputStream> sheets = reader.getSheetsData(); //sheets in workbook order
+            final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, handlers.size()));
+            final List<Future<?>> tasks = new ArrayList<>();
+
+            try
+            {
+                for (int i = 0; sheets.hasNext(); i++)
+                {
+                    final InputStream sheet = sheets.next();
+                    final RowHandler handler = handlers.get(i);
+
+                    if (handler == null) sheet.close(); //sheet not requested
+                    else tasks.add(pool.submit(() ->
+                    {
+                        try (sheet) { parse(sheet, new XSSFSheetXMLHandler(styles, strings, new RowCollector(handler), new RawValueFormatter(), false)); }
+                        return null;
+                    }));
+                }
+                if (tasks.size() != handlers.size()) throw new IOException("Sheet(s) " + handlers.keySet() + " not all found in " + inFile);
+
+                for (final Future<?> task : tasks) task.get(); //wait for every sheet
+            }
+            finally { pool.shutdownNow(); }
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch (OpenXML4JException | SAXException e) { throw new IOException(e); }
+    }
+
+    /**
+     * Runs the SAX parser over a single sheet stream
+     * @param sheet sheet XML
+     * @param xmlHandler POI's sheet handler
+     */
+    static void parse(final InputStream sheet, final XSSFSheetXMLHandler xmlHandler) throws IOException, SAXException, ParserConfigurationException
+    {
+        final var parser = XMLHelper.newXMLReader();
+        parser.setContentHandler(xmlHandler);
+        parser.parse(new InputSource(sheet));
+    }
+
+    /**
+     * Collects the cells of the current row into a reusable buffer and hands it over when the row ends
+     */
+    static class RowCollector implements SheetContentsHandler
+    {
+        private final RowHandler handler;
+        private final List<String> headers = new ArrayList<>();
+        private String[] values = new String[0];
+        private int currentRow;
+
+        RowCollector(final RowHandler handler) { this.handler = handler; }
+
+        @Override
+        public void startRow(final int rowNum)
+        {
+            currentRow = rowNum;
+            Arrays.fill(values, null); //clear the previous row
+        }
+
+        @Override
+        public void endRow(final int rowNum)
+        {
+            if (rowNum == 0)
+            {
+                handler.header(Collections.unmodifiableList(headers));
+                values = new String[headers.size()];
+            }
+            else handler.row(values);
+        }
+
+        @Override
+        public void endSheet() { handler.end(); }
+
+        @Override
+        public void cell(final String cellReference, final String formattedValue, final XSSFComment comment)
+        {
+            final int column = new CellReference(cellReference).getCol();
+
+            if (currentRow == 0)
+            {
+                while (headers.size() <= column) headers.add(null); //pad missing header cells
+                headers.set(column, formattedValue);
+            }
+            else if (column < values.length) values[column] = formattedValue; //columns without a header are never read
+        }
+    }
+
+    /**
+     * Returns numeric cells as their raw value instead of applying the cell's number format, so that the value read
+     * here is the same as Cell.getNumericCellValue()
+     */
+    static class RawValueFormatter extends DataFormatter
+    {
+        @Override
+        public String formatRawCellContents(final double value, final int formatIndex, final String formatString) { return NumberToTextConverter.toText(value); }
+    }
+}
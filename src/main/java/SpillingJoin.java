@@ -0,0 +1,616 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Out-of-core version of the IdentityResolver join, for inputs whose owners and properties don't fit on the heap
+ * together. Rows are appended to spill files as they are decoded, and the join reads them back one partition at a time:
+ *
+ *   1. owners and properties are numbered in the order they were read and hash-partitioned by pNum, so every owner
+ *      lands in the same partition as its properties;
+ *   2. each pNum partition is loaded on its own to find the owners that own something. Their phone numbers, emails and
+ *      names are written to key partitions, and the owners, with their properties, to a member file;
+ *   3. each key partition is loaded on its own and the owners sharing a key are unioned. The union-find runs over the
+ *      owner numbers, so only a few ints per owner stay in memory;
+ *   4. every cluster is numbered after its first owner, and the members are range-partitioned by that number, so the
+ *      partitions come out in the order of the in-memory join. Each partition is loaded, its clusters are merged with
+ *      IdentityResolver.merge, and the clients are appended to the result.
+ *
+ * The number of partitions is chosen from the size of the spill files, so that one partition fits the memory budget.
+ * The result is the same list, in the same order, that IdentityResolver.resolve builds from the same rows; only the
+ * merged clients are kept on the heap.
+ */
+public class SpillingJoin implements Closeable
+{
+    private static final int EXPANSION = 8; //heap bytes taken by a row per byte it takes in a spill file, roughly
+    private static final int MAX_PARTITIONS = 1024;
+    private static final int MAX_BUFFER = 1 << 16;
+
+    private final Path dir; //spill files of this join, deleted on close
+    private final long memoryBudget;
+    private final List<Sink<Owner>> ownerSinks = new ArrayList<>(); //in the order the rows are numbered
+    private final List<Sink<Property>> propertySinks = new ArrayList<>();
+    private int files;
+
+    /**
+     * @param spillDir directory the spill files are created in
+     * @param memoryBudget heap bytes one partition may take while it is joined
+     * @throws IOException if the spill directory can't be created
+     */
+    public SpillingJoin(final Path spillDir, final long memoryBudget) throws IOException
+    {
+        if (memoryBudget <= 0) throw new IllegalArgumentException("The memory budget must be positive, was " + memoryBudget);
+
+        Files.createDirectories(spillDir);
+        this.dir = Files.createTempDirectory(spillDir, "join");
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return a sink that spills the owners it accepts; its rows follow the rows of the sinks created before it
+     * @throws UncheckedIOException if the spill file can't be created
+     */
+    public synchronized Consumer<Owner> newOwners()
+    {
+        final Sink<Owner> sink = new Sink<>(SpillingJoin::writeOwner);
+        ownerSinks.add(sink);
+        return sink;
+    }
+
+    /**
+     * @return a sink that spills the properties it accepts; its rows follow the rows of the sinks created before it
+     * @throws UncheckedIOException if the spill file can't be created
+     */
+    public synchronized Consumer<Property> newProperties()
+    {
+        final Sink<Property> sink = new Sink<>(SpillingJoin::writeProperty);
+        propertySinks.add(sink);
+        return sink;
+    }
+
+    /**
+     * @return number of owners spilled so far
+     */
+    public synchronized int ownerCount() { return ownerSinks.stream().mapToInt(Sink::count).sum(); }
+
+    /**
+     * @return number of properties spilled so far
+     */
+    public synchronized int propertyCount() { return propertySinks.stream().mapToInt(Sink::count).sum(); }
+
+    /**
+     * Joins every row spilled so far. The rows stay spilled, so more rows can be added and the join run again
+     * @return one merged owner per person that owns at least one property, in the order they first appear
+     * @throws IOException if a spill file can't be written or read
+     */
+    public synchronized List<Owner> resolve() throws IOException
+    {
+        long spilled = 0;
+        for (final Sink<?> sink : ownerSinks) spilled += sink.flush();
+        for (final Sink<?> sink : propertySinks) spilled += sink.flush();
+
+        final int owners = ownerCount();
+        if (owners == 0) return List.of();
+
+        final int partitions = (int) Math.max(1, Math.min(MAX_PARTITIONS, (spilled * EXPANSION + memoryBudget - 1) / memoryBudget));
+        final int buffer = (int) Math.max(1 << 10, Math.min(MAX_BUFFER, memoryBudget / (4L * partitions))); //the writers of all partitions share a quarter of the budget
+
+        final var ownerParts = new Partitions(partitions, buffer);
+        final var propertyParts = new Partitions(partitions, buffer);
+        final var keyParts = new Partitions(partitions, buffer);
+        final var clusterParts = new Partitions(partitions, buffer);
+        final var memberFile = new Partitions(1, MAX_BUFFER);
+
+        try
+        {
+            partitionByPNum(partitions, ownerParts, propertyParts);
+
+            final var members = new BitSet(owners);
+            for (int k = 0; k < partitions; k++) findMembers(ownerParts, propertyParts, k, members, keyParts, memberFile.out(0));
+
+            final var clusters = new UnionFind(owners);
+            for (int k = 0; k < partitions; k++) linkKeys(keyParts, k, clusters);
+
+            final int[] firstMember = new int[owners]; //root -> first member of the cluster
+            Arrays.fill(firstMember, -1);
+            for (int seq = members.nextSetBit(0); seq >= 0; seq = members.nextSetBit(seq + 1))
+            {
+                final int root = clusters.find(seq);
+                if (firstMember[root] == -1) firstMember[root] = seq; //members are visited in the order they were read
+            }
+
+            try (final DataInputStream in = memberFile.in(0))
+            {
+                while (hasMore(in))
+                {
+                    final Member member = Member.read(in);
+                    final int cluster = firstMember[clusters.find(member.seq)];
+                    final DataOutputStream out = clusterParts.out((int) ((long) cluster * partitions / owners)); //range partitions keep the cluster order
+
+                    out.writeInt(cluster);
+                    member.write(out);
+                }
+            }
+
+            final List<Owner> clients = new ArrayList<>();
+            final var properties = new PropertyTable(); //the clients' properties, stored column by column
+            for (int k = 0; k < partitions; k++) mergeClusters(clusterParts, k, properties, clients);
+
+            return Collections.unmodifiableList(clients);
+        }
+        finally
+        {
+            ownerParts.delete();
+            propertyParts.delete();
+            keyParts.delete();
+            clusterParts.delete();
+            memberFile.delete();
+        }
+    }
+
+    /**
+     * Numbers the spilled rows in order and writes each one, with its number, to the partition of its pNum
+     */
+    private void partitionByPNum(final int partitions, final Partitions ownerParts, final Partitions propertyParts) throws IOException
+    {
+        int seq = 0;
+        for (final Sink<Property> sink : propertySinks)
+        {
+            try (final DataInputStream in = sink.in())
+            {
+                for (int i = 0; i < sink.count(); i++)
+                {
+                    final Property prop = readProperty(in);
+                    final DataOutputStream out = propertyParts.out(partition(prop.getpNum(), partitions));
+
+                    out.writeInt(seq++);
+                    writeProperty(out, prop);
+                }
+            }
+        }
+
+        seq = 0;
+        for (final Sink<Owner> sink : ownerSinks)
+        {
+            try (final DataInputStream in = sink.in())
+            {
+                for (int i = 0; i < sink.count(); i++)
+                {
+                    final Owner owner = readOwner(in);
+                    final DataOutputStream out = ownerParts.out(partition(owner.getpNum(), partitions));
+
+                    out.writeInt(seq++);
+                    writeOwner(out, owner);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads one pNum partition and writes out the keys and the records of the owners that own a property in it
+     */
+    private static void findMembers(final Partitions ownerParts, final Partitions propertyParts, final int k, final BitSet members, final Partitions keyParts, final DataOutputStream memberOut) throws IOException
+    {
+        final Map<Integer, List<Numbered<Property>>> propertyIndex = new HashMap<>(); //pNum -> properties, in order
+
+        try (final DataInputStream in = propertyParts.in(k))
+        {
+            while (hasMore(in))
+            {
+                final var prop = new Numbered<>(in.readInt(), readProperty(in));
+                propertyIndex.computeIfAbsent(prop.row.getpNum(), key -> new ArrayList<>(1)).add(prop);
+            }
+        }
+
+        try (final DataInputStream in = ownerParts.in(k))
+        {
+            while (hasMore(in))
+            {
+                final int seq = in.readInt();
+                final Owner owner = readOwner(in);
+                final List<Numbered<Property>> owned = propertyIndex.get(owner.getpNum());
+                if (owned == null) continue; //owns nothing
+
+                members.set(seq);
+                for (int p = 0; p < owner.getPhones().size(); p++) writeKey(keyParts, "p" + owner.getPhones().get(p), seq);
+                writeKey(keyParts, IdentityResolver.normalizeEmail(owner.getEmail()) == null ? null : "e" + IdentityResolver.normalizeEmail(owner.getEmail()), seq);
+                writeKey(keyParts, IdentityResolver.normalizeName(owner.getName()) == null ? null : "n" + IdentityResolver.normalizeName(owner.getName()), seq);
+
+                new Member(seq, owner, owned).write(memberOut);
+            }
+        }
+    }
+
+    /**
+     * @param key a phone number, email or name prefixed with its kind, so an email never links with an equal name
+     */
+    private static void writeKey(final Partitions keyParts, final String key, final int seq) throws IOException
+    {
+        if (key == null || key.length() == 1) return; //no value
+
+        final DataOutputStream out = keyParts.out(Math.floorMod(key.hashCode() * 0x9E3779B9, keyParts.size()));
+        out.writeUTF(key);
+        out.writeInt(seq);
+    }
+
+    /**
+     * Loads one key partition and unions the owners that share a key
+     */
+    private static void linkKeys(final Partitions keyParts, final int k, final UnionFind clusters) throws IOException
+    {
+        final Map<String, Integer> firstOwner = new HashMap<>();
+
+        try (final DataInputStream in = keyParts.in(k))
+        {
+            while (hasMore(in))
+            {
+                final String key = in.readUTF();
+                final int seq = in.readInt();
+                final Integer first = firstOwner.putIfAbsent(key, seq);
+
+                if (first != null) clusters.union(first, seq);
+            }
+        }
+    }
+
+    /**
+     * Loads one cluster partition and merges its clusters in order
+     */
+    private static void mergeClusters(final Partitions clusterParts, final int k, final PropertyTable properties, final List<Owner> clients) throws IOException
+    {
+        final List<Numbered<Member>> members = new ArrayList<>(); //numbered by their cluster
+
+        try (final DataInputStream in = clusterParts.in(k))
+        {
+            while (hasMore(in))
+            {
+                final int cluster = in.readInt();
+                members.add(new Numbered<>(cluster, Member.read(in)));
+            }
+        }
+        members.sort(Comparator.<Numbered<Member>>comparingInt(member -> member.seq).thenComparingInt(member -> member.row.seq));
+
+        final Map<Integer, Property> stored = new HashMap<>(); //property number -> its row in the table, so co-owners share it
+        for (int start = 0; start < members.size(); )
+        {
+            final int cluster = members.get(start).seq;
+            final List<Owner> group = new ArrayList<>();
+            final Map<Integer, List<Property>> propertyIndex = new HashMap<>();
+            int end = start;
+
+            for (; end < members.size() && members.get(end).seq == cluster; end++)
+            {
+                final Member member = members.get(end).row;
+                final List<Property> owned = new ArrayList<>(member.properties.size());
+
+                for (final Numbered<Property> prop : member.properties)
+                {
+                    owned.add(stored.computeIfAbsent(prop.seq, seq ->
+                    {
+                        properties.add(prop.row);
+                        return properties.get(properties.size() - 1);
+                    }));
+                }
+                group.add(member.owner);
+                propertyIndex.put(member.owner.getpNum(), owned);
+            }
+
+            clients.add(IdentityResolver.merge(group, propertyIndex::get, null));
+            start = end;
+        }
+    }
+
+    private static int partition(final int pNum, final int partitions) { return Math.floorMod(pNum * 0x9E3779B9, partitions); }
+
+    private static boolean hasMore(final DataInputStream in) throws IOException
+    {
+        in.mark(1);
+        final boolean more = in.read() != -1;
+        in.reset();
+        return more;
+    }
+
+    /**
+     * A row with the number it was read as
+     */
+    private static class Numbered<T>
+    {
+        final int seq;
+        final T row;
+
+        Numbered(final int seq, final T row)
+        {
+            this.seq = seq;
+            this.row = row;
+        }
+    }
+
+    /**
+     * An owner that owns something, with the properties of its pNum
+     */
+    private static class Member
+    {
+        final int seq;
+        final Owner owner;
+        final List<Numbered<Property>> properties;
+
+        Member(final int seq, final Owner owner, final List<Numbered<Property>> properties)
+        {
+            this.seq = seq;
+            this.owner = owner;
+            this.properties = properties;
+        }
+
+        void write(final DataOutputStream out) throws IOException
+        {
+            out.writeInt(seq);
+            writeOwner(out, owner);
+            out.writeInt(properties.size());
+
+            for (final Numbered<Property> prop : properties)
+            {
+                out.writeInt(prop.seq);
+                writeProperty(out, prop.row);
+            }
+        }
+
+        static Member read(final DataInputStream in) throws IOException
+        {
+            final int seq = in.readInt();
+            final Owner owner = readOwner(in);
+            final int count = in.readInt();
+            final List<Numbered<Property>> properties = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) properties.add(new Numbered<>(in.readInt(), readProperty(in)));
+            return new Member(seq, owner, properties);
+        }
+    }
+
+    static void writeOwner(final DataOutputStream out, final Owner owner) throws IOException
+    {
+        out.writeInt(owner.getpNum());
+        writeString(out, owner.getName());
+        writeString(out, owner.getEmail());
+        writeString(out, owner.getSex());
+        out.writeByte(owner.getPhones().size());
+        for (int i = 0; i < owner.getPhones().size(); i++) out.writeLong(owner.getPhones().get(i));
+    }
+
+    static Owner readOwner(final DataInputStream in) throws IOException
+    {
+        final var owner = new Owner();
+
+        owner.setpNum(in.readInt());
+        owner.setName(readString(in));
+        owner.setEmail(readString(in));
+        owner.setSex(readString(in));
+
+        final int phones = in.readByte();
+        for (int i = 0; i < phones; i++) owner.addPhone(in.readLong());
+        return owner;
+    }
+
+    static void writeProperty(final DataOutputStream out, final Property prop) throws IOException
+    {
+        out.writeInt(prop.getpNum());
+        writeString(out, prop.getName());
+        writeString(out, prop.getLocation());
+        writeString(out, prop.getBedrooms());
+        out.writeDouble(prop.getSize());
+    }
+
+    static Property readProperty(final DataInputStream in) throws IOException
+    {
+        final var prop = new Property();
+
+        prop.setpNum(in.readInt());
+        prop.setName(readString(in));
+        prop.setLocation(readString(in));
+        prop.setBedrooms(readString(in));
+        prop.setSize(in.readDouble());
+        return prop;
+    }
+
+    static void writeString(final DataOutputStream out, final String value) throws IOException
+    {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    static String readString(final DataInputStream in) throws IOException { return in.readBoolean() ? in.readUTF() : null; }
+
+    /**
+     * Writes a row to a spill file
+     */
+    @FunctionalInterface
+    private interface RowWriter<T>
+    {
+        void write(DataOutputStream out, T row) throws IOException;
+    }
+
+    /**
+     * Writes the rows it accepts to a spill file instead of keeping them. Filled by one thread at a time
+     */
+    private class Sink<T> implements Consumer<T>
+    {
+        private final Path file;
+        private final DataOutputStream out;
+        private final RowWriter<T> writer;
+        private int count;
+
+        Sink(final RowWriter<T> writer)
+        {
+            this.writer = writer;
+            this.file = dir.resolve("rows-" + files++ + ".bin");
+
+            try { out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), MAX_BUFFER)); }
+            catch (IOException ioe) { throw new UncheckedIOException(ioe); }
+        }
+
+        @Override
+        public void accept(final T row)
+        {
+            try { writer.write(out, row); }
+            catch (IOException ioe) { throw new UncheckedIOException(ioe); }
+
+            count++;
+        }
+
+        /**
+         * @return rows accepted so far
+         */
+        int count() { return count; }
+
+        /**
+         * @return bytes written so far
+         */
+        long flush() throws IOException
+        {
+            out.flush();
+            return Files.size(file);
+        }
+
+        DataInputStream in() throws IOException { return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), MAX_BUFFER)); }
+
+        void close() throws IOException
+        {
+            out.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Spill files of one pass, one per partition, created on first write. Every partition collects its records in a
+     * buffer of its own and appends the buffer to its file only when it is full, so a pass keeps at most one file open
+     * however many partitions it writes, and stays within the open-file limit at MAX_PARTITIONS
+     */
+    private class Partitions
+    {
+        private final Path[] files;
+        private final DataOutputStream[] outs;
+        private final int buffer;
+
+        Partitions(final int count, final int buffer)
+        {
+            this.files = new Path[count];
+            this.outs = new DataOutputStream[count];
+            this.buffer = buffer;
+        }
+
+        int size() { return files.length; }
+
+        DataOutputStream out(final int k) throws IOException
+        {
+            if (outs[k] == null)
+            {
+                files[k] = Files.createTempFile(dir, "part", ".bin");
+                outs[k] = new DataOutputStream(new AppendingStream(files[k], buffer));
+            }
+            return outs[k];
+        }
+
+        /**
+         * Finishes writing the partition and opens it for reading
+         * @return the partition's records, empty if none were written
+         */
+        DataInputStream in(final int k) throws IOException
+        {
+            if (outs[k] == null) return new DataInputStream(new ByteArrayInputStream(new byte[0]));
+
+            outs[k].close();
+            return new DataInputStream(new BufferedInputStream(Files.newInputStream(files[k]), buffer));
+        }
+
+        void delete() throws IOException
+        {
+            for (int k = 0; k < files.length; k++)
+            {
+                if (outs[k] == null) continue;
+
+                outs[k].close();
+                Files.deleteIfExists(files[k]);
+            }
+        }
+    }
+
+    /**
+     * Buffers the writes to a file and appends the buffer to the file whenever it is full, opening the file only for
+     * as long as that takes
+     */
+    private static class AppendingStream extends OutputStream
+    {
+        private final Path file;
+        private final byte[] buffer;
+        private int count;
+
+        AppendingStream(final Path file, final int size)
+        {
+            this.file = file;
+            this.buffer = new byte[size];
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            if (count == buffer.length) flush();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (len > buffer.length - count) flush();
+            if (len >= buffer.length) append(b, off, len); //too large to buffer
+            else
+            {
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            append(buffer, 0, count);
+            count = 0;
+        }
+
+        @Override
+        public void close() throws IOException { flush(); }
+
+        private void append(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (len == 0) return;
+            try (final OutputStream out = Files.newOutputStream(file, StandardOpenOption.APPEND)) { out.write(b, off, len); }
+        }
+    }
+
+    /**
+     * Deletes the spill files
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        for (final Sink<?> sink : ownerSinks) sink.close();
+        for (final Sink<?> sink : propertySinks) sink.close();
+        Files.deleteIfExists(dir);
+    }
+}
@@ -0,0 +1,43 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps each distinct string to a small int code and back, so a column with a handful of distinct values (project,
+ * area, bedrooms) stores one int per row and one copy of every value
+ */
+public class StringDictionary
+{
+    public static final int NULL = -1; //code of a missing value
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /**
+     * @param value a string, possibly null
+     * @return the code of the string, adding it to the dictionary on first use
+     */
+    public int encode(final String value)
+    {
+        if (value == null) return NULL;
+
+        final Integer code = codes.get(value);
+        if (code != null) return code;
+
+        values.add(value);
+        codes.put(value, values.size() - 1);
+        return values.size() - 1;
+    }
+
+    /**
+     * @param code a code returned by encode
+     * @return the string it stands for
+     */
+    public String decode(final int code) { return code == NULL ? null : values.get(code); }
+
+    /**
+     * @return number of distinct strings
+     */
+    public int size() { return values.size(); }
+}
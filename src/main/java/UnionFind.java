@@ -0,0 +1,65 @@
+import java.util.Arrays;
+
+/**
+ * Disjoint-set forest over the integers 0..n-1, with path halving and union by size so that every operation runs in
+ * near constant amortized time
+ */
+public class UnionFind
+{
+    private final int[] parent;
+    private final int[] size;
+
+    /**
+     * @param n number of elements, each starting in its own set
+     */
+    public UnionFind(final int n)
+    {
+        parent = new int[n];
+        size = new int[n];
+
+        for (int i = 0; i < n; i++) parent[i] = i;
+        Arrays.fill(size, 1);
+    }
+
+    /**
+     * @param x an element
+     * @return the representative of the set that contains x
+     */
+    public int find(int x)
+    {
+        while (parent[x] != x)
+        {
+            parent[x] = parent[parent[x]]; //point every other node at its grandparent
+            x = parent[x];
+        }
+        return x;
+    }
+
+    /**
+     * Merges the sets that contain a and b
+     * @param a an element
+     * @param b an element
+     */
+    public void union(final int a, final int b)
+    {
+        int rootA = find(a);
+        int rootB = find(b);
+
+        if (rootA == rootB) return;
+
+        //hang the smaller tree under the larger one
+        if (size[rootA] < size[rootB])
+        {
+            final int tmp = rootA;
+            rootA = rootB;
+            rootB = tmp;
+        }
+        parent[rootB] = rootA;
+        size[rootA] += size[rootB];
+    }
+
+    /**
+     * @return number of elements
+     */
+    public int size() { return parent.length; }
+}
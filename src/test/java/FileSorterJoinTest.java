@@ -0,0 +1,242 @@
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the indexed join of FileSorter with the nested-loop join it replaced. The nested loop is kept below as the
+ * oracle, word for word, and both joins run on the same rows: a workbook with a property sheet and two owner sheets,
+ * read sheet by sheet like the registry exports, with a join after every sheet once owners and properties are loaded.
+ */
+public class FileSorterJoinTest
+{
+    private static final String[] PROPERTY_HEADER = {"P-NUMBER", "AREA", "PROJECT", "ROOMS DESCRIPTION", "ACTUAL AREA"};
+    private static final String[] OWNER_HEADER = {"P-NUMBER", "NAME", "GENDER", "EMAIL", "PHONE", "MOBILE", "SECONDARY MOBILE"};
+
+    private static final String[][] PROPERTIES = {
+            {"1", "Town Square", "Hayat", "1 B/R", "700"},
+            {"2", "Town Square", "Zahra", "2 B/R", "1100"},
+            {"3", "Damac Hills", "Golf Town", "3 B/R", "1900"},
+            {"4", "Damac Hills", "Loreto", "Studio", "450"},
+            {"5", "Town Square", "Safi", "1 B/R", "720"},
+            {"5", "Town Square", "Safi", "Parking", "150"}, //one pNum, two rows
+            {"6", "Damac Hills", "Artesia", "4 B/R", "3200"},
+            {"7", "Town Square", "Jenna", "2 B/R", "1050"},
+            {"8", "Town Square", "Noor", "1 B/R", "690"},
+    };
+
+    private static final String[][] OWNERS = {
+            {"1", "ALI HASSAN", "Male", "ali@mail.com", "971501000001", "", ""},
+            {"2", "ALI HASSAN", "Male", "", "971501000002", "", ""}, //same name, other number
+            {"3", "SARA AHMED", "Female", "sara@mail.com", "", "971501000001", ""}, //shares Ali's number: joint name
+            {"4", "HASSAN", "Male", "hassan@mail.com", "971501000001", "", ""}, //contained in the joint name
+            {"5", "MARIA LOPEZ", "Female", "maria@mail.com", "", "", "971551000005"}, //two properties
+            {"99", "NO PROPERTY", "Male", "none@mail.com", "971551000099", "", ""}, //owns nothing
+            {"7", "OMAR SAID", "Male", "", "", "", ""}, //no contact, not qualified
+    };
+
+    private static final String[][] MORE_OWNERS = {
+            {"6", "ALI HASSAN", "Male", "ali2@mail.com", "971521000006", "", ""}, //same name as a client of the first sheet
+            {"7", "OMAR SAID", "Male", "omar@mail.com", "971501000002", "", ""}, //number of an owner merged by name only
+            {"8", "LINA KHAN", "Female", "lina@mail.com", "971551000005", "971561000008", ""}, //shares Maria's number
+            {"2", "ALI HASSAN", "Male", "", "971501000002", "", ""}, //a co-owner row repeated
+    };
+
+    @TempDir
+    Path dir;
+
+    private File workbook;
+
+    @BeforeEach
+    void writeWorkbook() throws IOException
+    {
+        workbook = dir.resolve("registry.xlsx").toFile();
+
+        try (final var book = new XSSFWorkbook(); final var output = new FileOutputStream(workbook))
+        {
+            writeSheet(book.createSheet("Properties"), PROPERTY_HEADER, PROPERTIES);
+            writeSheet(book.createSheet("Owners"), OWNER_HEADER, OWNERS);
+            writeSheet(book.createSheet("More Owners"), OWNER_HEADER, MORE_OWNERS);
+            book.write(output);
+        }
+    }
+
+    @Test
+    void matchesNestedLoopJoinForPropertiesAndOneOwnerSheet() throws IOException
+    {
+        final List<String> indexed = indexedJoin(0, 1);
+        final List<String> nested = nestedLoopJoin(OWNERS);
+
+        assertEquals(nested, indexed);
+        assertTrue(indexed.contains("Name: Ali Hassan  & Sara Ahmed  -Male "), "shared phone gives a joint name, Hassan is contained in it");
+    }
+
+    @Test
+    void matchesNestedLoopJoinForPropertiesAndTwoOwnerSheets() throws IOException
+    {
+        final List<String> indexed = indexedJoin(0, 1, 2);
+        final List<String> nested = nestedLoopJoin(OWNERS, MORE_OWNERS);
+
+        assertEquals(nested, indexed);
+        assertTrue(indexed.contains("Name: Maria Lopez  & Lina Khan  -Female "), "shared phone across sheets gives a joint name");
+    }
+
+    /**
+     * Reads the sheets one by one through FileSorter, which joins after every sheet once both kinds are loaded
+     * @return the prospective clients as createFile writes them
+     */
+    private List<String> indexedJoin(final int... sheets) throws IOException
+    {
+        final var sorter = new FileSorter();
+        for (final int sheet : sheets) sorter.readExcel(workbook, sheet, sheet == 0 ? "p" : "o");
+
+        final Path out = dir.resolve("clients.txt");
+        sorter.createFile(out.toString(), "all");
+        return Files.readAllLines(out);
+    }
+
+    /**
+     * Runs the original nested-loop join over the same rows, joining after every owner sheet like readExcel did
+     * @return the prospective clients as createFile writes them
+     */
+    private static List<String> nestedLoopJoin(final String[][]... ownerSheets)
+    {
+        final List<Property> allProperties = new ArrayList<>();
+        final List<Owner> allOwners = new ArrayList<>();
+        final List<Owner> prospectiveClients = new ArrayList<>();
+
+        for (final String[] row : PROPERTIES) allProperties.add(property(row));
+
+        for (final String[][] sheet : ownerSheets)
+        {
+            for (final String[] row : sheet)
+            {
+                final Owner owner = owner(row);
+                if (!owner.getPhones().isEmpty() || owner.getEmail() != null) allOwners.add(owner); //qualified
+            }
+            setProperty(allOwners, allProperties, prospectiveClients);
+        }
+
+        final List<String> lines = new ArrayList<>();
+        for (final Owner client : prospectiveClients) lines.addAll(List.of(client.toString().split("\n", -1))); //println ends every client with a blank line
+        return lines;
+    }
+
+    /**
+     * The join as it was before the indexed version, comparing phone numbers the way FilterUtils.hasCommonElements did
+     */
+    private static void setProperty(final List<Owner> allOwners, final List<Property> allProperties, final List<Owner> prospectiveClients)
+    {
+        //traverse the list of owners
+        for (final Owner owner : allOwners)
+        {
+            boolean unique = true; //to track whether an owner is already in the prospectiveClients list
+
+            //traverse the list of properties
+            for (final Property prop : allProperties)
+            {
+                //find the property that belongs to the current owner
+                if (owner.getpNum() == prop.getpNum())
+                {
+                    //traverse the prospectiveClients list
+                    for (final Owner prospectiveClient : prospectiveClients)
+                    {
+                        //the owner is already in the list
+                        if (owner.getName().equals(prospectiveClient.getName()))
+                        {
+                            unique = false; //owner is not unique
+                            prospectiveClient.addProperty(prop); //add the property to the existing owner in the prospectiveClient list
+                        }
+
+                        //the owner is differently named but has the same phone number
+                        else if (hasCommonElements(owner.getPhoneNums(), prospectiveClient.getPhoneNums()))
+                        {
+                            unique = false; //owner is not unique
+
+                            final String oldName = prospectiveClient.getName(); //get the old name
+                            final String newName = owner.getName(); //get the new name
+
+                            final String oldEmail = prospectiveClient.getEmail();
+                            final String newEmail = owner.getEmail();
+
+                            if (!oldName.contains(newName)) prospectiveClient.setName(oldName + " & " + newName); //update name
+
+                            if (oldEmail == null && newEmail != null) prospectiveClient.setEmail(newEmail);
+                            else if (oldEmail != null && newEmail != null) prospectiveClient.setEmail(oldEmail + ", " + newEmail);
+
+                            prospectiveClient.addProperty(prop); //add the property
+                        }
+                    }
+
+                    //the owner is not in the prospectiveClients list
+                    if (unique)
+                    {
+                        owner.addProperty(prop); //add the property to the owner
+                        prospectiveClients.add(owner); //add the owner to the prospectiveClients list
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean hasCommonElements(final List<String> a, final List<String> b)
+    {
+        for (final String element : a) if (b.contains(element)) return true;
+        return false;
+    }
+
+    /**
+     * @param row cells of a property row
+     * @return the property FileSorter decodes from the row
+     */
+    private static Property property(final String[] row)
+    {
+        final var prop = new Property();
+        prop.setpNum(Integer.parseInt(row[0]));
+        prop.setLocation(row[1]);
+        prop.setName(row[2]);
+        prop.setBedrooms(row[3]);
+        prop.setSize(Double.parseDouble(row[4]));
+        return prop;
+    }
+
+    /**
+     * @param row cells of an owner row; the numbers are written the way PhoneNormalizer stores them
+     * @return the owner FileSorter decodes from the row
+     */
+    private static Owner owner(final String[] row)
+    {
+        final var owner = new Owner();
+        owner.setpNum(Integer.parseInt(row[0]));
+        owner.setName(FilterUtils.reformatName(row[1]));
+        owner.setSex(row[2]);
+        if (!row[3].isEmpty()) owner.setEmail(row[3].toLowerCase(Locale.ROOT));
+        for (int col = 4; col < 7; col++) if (!row[col].isEmpty()) owner.getPhones().add(PhoneSet.encode(row[col]));
+        return owner;
+    }
+
+    private static void writeSheet(final Sheet sheet, final String[] header, final String[][] rows)
+    {
+        writeRow(sheet.createRow(0), header);
+        for (int i = 0; i < rows.length; i++) writeRow(sheet.createRow(i + 1), rows[i]);
+    }
+
+    private static void writeRow(final Row row, final String[] values)
+    {
+        for (int col = 0; col < values.length; col++) if (!values[col].isEmpty()) row.createCell(col).setCellValue(values[col]);
+    }
+}
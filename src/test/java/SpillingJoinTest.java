@@ -0,0 +1,151 @@
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that the out-of-core join gives the same prospective clients as the in-memory join with identity resolution,
+ * from a budget so small that the owners are spread over dozens of partitions up to one that fits them all in one, and
+ * for each of the ways a workbook is read.
+ */
+public class SpillingJoinTest
+{
+    private static final long[] BUDGETS = {20_000, 200_000, 20_000_000, 1L << 30};
+    private static final String[] PROPERTY_HEADER = {"P-NUMBER", "AREA", "PROJECT", "ROOMS DESCRIPTION", "ACTUAL AREA"};
+    private static final String[] OWNER_HEADER = {"P-NUMBER", "NAME", "GENDER", "EMAIL", "PHONE", "MOBILE", "SECONDARY MOBILE"};
+    private static final int PROPERTIES = 1500;
+    private static final int OWNERS = 1000; //per owner sheet
+
+    @TempDir
+    Path dir;
+
+    private File workbook;
+
+    /**
+     * Writes a registry whose owners share phone numbers, emails and names often enough to form clusters that span
+     * partitions and sheets
+     */
+    @BeforeEach
+    void writeWorkbook() throws IOException
+    {
+        workbook = dir.resolve("registry.xlsx").toFile();
+        final var random = new Random(42);
+
+        try (final var book = new XSSFWorkbook(); final var output = new FileOutputStream(workbook))
+        {
+            final Sheet properties = book.createSheet("Properties");
+            writeRow(properties.createRow(0), PROPERTY_HEADER);
+            for (int i = 0; i < PROPERTIES; i++)
+                writeRow(properties.createRow(i + 1), new String[]{String.valueOf(i + 1), "Area " + random.nextInt(5), "Project " + random.nextInt(40), (1 + random.nextInt(4)) + " B/R", String.valueOf(400 + random.nextInt(3000))});
+
+            for (final String name : new String[]{"Owners", "More Owners"})
+            {
+                final Sheet owners = book.createSheet(name);
+                writeRow(owners.createRow(0), OWNER_HEADER);
+                for (int i = 0; i < OWNERS; i++) writeRow(owners.createRow(i + 1), owner(random));
+            }
+            book.write(output);
+        }
+    }
+
+    @Test
+    void matchesInMemoryJoinReadingSheetBySheet() throws IOException
+    {
+        final List<String> expected = join(null, 0, "dom");
+        for (final long budget : BUDGETS) assertEquals(expected, join(dir.resolve("spill").toFile(), budget, "dom"), "budget " + budget);
+    }
+
+    @Test
+    void matchesInMemoryJoinStreamingSheets() throws IOException
+    {
+        final List<String> expected = join(null, 0, "stream");
+        for (final long budget : BUDGETS) assertEquals(expected, join(dir.resolve("spill").toFile(), budget, "stream"), "budget " + budget);
+    }
+
+    @Test
+    void matchesInMemoryJoinReadingTheWorkbookAtOnce() throws IOException
+    {
+        final List<String> expected = join(null, 0, "workbook");
+        for (final long budget : BUDGETS) assertEquals(expected, join(dir.resolve("spill").toFile(), budget, "workbook"), "budget " + budget);
+    }
+
+    @Test
+    void refusesJoinsItCannotReproduce() throws IOException
+    {
+        final File spill = dir.resolve("spill").toFile();
+
+        final var plain = new FileSorter();
+        assertThrows(IllegalStateException.class, () -> plain.setOutOfCore(spill, 1L << 20), "needs identity resolution");
+
+        final var fuzzy = new FileSorter();
+        fuzzy.setIdentityResolution(true);
+        fuzzy.setFuzzyNameThreshold(0.9);
+        assertThrows(IllegalStateException.class, () -> fuzzy.setOutOfCore(spill, 1L << 20), "can't match names fuzzily");
+
+        final var outOfCore = new FileSorter();
+        outOfCore.setIdentityResolution(true);
+        outOfCore.setOutOfCore(spill, 1L << 20);
+        assertThrows(IllegalStateException.class, () -> outOfCore.setIdentityResolution(false));
+        assertThrows(IllegalStateException.class, () -> outOfCore.setFuzzyNameThreshold(0.9));
+        outOfCore.setOutOfCore(null, 0);
+    }
+
+    /**
+     * Reads the workbook with identity resolution, in memory or out of core
+     * @param spillDir spill directory, or null to join in memory
+     * @param budget memory budget of the out-of-core join
+     * @param mode "dom" or "stream" to read sheet by sheet, "workbook" to read every sheet in one pass
+     * @return the prospective clients as createFile writes them
+     */
+    private List<String> join(final File spillDir, final long budget, final String mode) throws IOException
+    {
+        final var sorter = new FileSorter();
+        sorter.setIdentityResolution(true);
+        if (spillDir != null) sorter.setOutOfCore(spillDir, budget);
+
+        switch (mode)
+        {
+            case "dom" -> { for (int sheet = 0; sheet < 3; sheet++) sorter.readExcel(workbook, sheet, sheet == 0 ? "p" : "o"); }
+            case "stream" -> { for (int sheet = 0; sheet < 3; sheet++) sorter.readExcelStreaming(workbook, sheet, sheet == 0 ? "p" : "o"); }
+            default -> sorter.readWorkbook(workbook, "p", "o", "o");
+        }
+
+        final Path out = dir.resolve("clients.txt");
+        sorter.createFile(out.toString(), "all");
+        if (spillDir != null) sorter.setOutOfCore(null, 0); //deletes the spill files
+        return Files.readAllLines(out);
+    }
+
+    /**
+     * @return an owner row drawing its name, email and numbers from pools small enough that owners collide on each of
+     *         them, and large enough that most clusters stay small
+     */
+    private static String[] owner(final Random random)
+    {
+        final String[] row = new String[OWNER_HEADER.length];
+        row[0] = String.valueOf(1 + random.nextInt(PROPERTIES + 100)); //a few own nothing
+        row[1] = "OWNER " + random.nextInt(4000);
+        row[2] = random.nextBoolean() ? "Male" : "Female";
+        row[3] = random.nextInt(3) == 0 ? "" : "owner" + random.nextInt(4000) + "@mail.com";
+        for (int col = 4; col < 7; col++) row[col] = random.nextInt(col == 4 ? 2 : 4) == 0 ? "" : String.valueOf(971500000000L + random.nextInt(8000));
+        return row;
+    }
+
+    private static void writeRow(final Row row, final String[] values)
+    {
+        for (int col = 0; col < values.length; col++) if (!values[col].isEmpty()) row.createCell(col).setCellValue(values[col]);
+    }
+}